@@ -0,0 +1,491 @@
+package tconsole;
+
+import java.util.Locale;
+
+/**
+ * The AudioAnalyzer listens to the songs played by the InternalPlayer
+ * and delivers modulation sources for the light: the loudness (RMS),
+ * the energy in three frequency bands (BASS, MID, TREBLE) and the beat
+ * (BEAT, 1 on a beat onset, decaying until the next one). Scenes with
+ * a 'scene.NN.modulation' parameter scale their intensity with one of
+ * these sources in every DMX frame.
+ *
+ * The InternalPlayer copies the mixed samples into a ring buffer with
+ * feed(), which does not allocate nor wait. The samples are mixed
+ * without the track volumes, so the volume fader and VOLUME steps do
+ * not change the modulation: RMS is the loudness of the songs as
+ * recorded, measured before any gain. A background thread takes
+ * the latest FFT_SIZE samples every HOP_SIZE samples, windows them and
+ * runs an in-place radix-2 FFT on preallocated arrays. The samples
+ * analyzed are the samples leaving the loudspeaker now, not the samples
+ * written to the audio line last, so the light does not run ahead of
+ * the music by the line buffer.
+ *
+ * The band energies are normalized by their peak of the last seconds
+ * (automatic gain), a beat onset is a rise of the bass energy (spectral
+ * flux) clearly above its average. With mplayer and the Radig player
+ * there are no samples, all sources stay at 0 and modulated scenes
+ * show with the intensity not modulated.
+ */
+public class AudioAnalyzer implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * the AudioAnalyzer is a call to AudioAnalyzer.initialize()
+     */
+    private AudioAnalyzer() {
+        Thread t = new Thread(this, "AudioAnalyzer");
+        t.setDaemon(true);
+        // below the audio and DMX threads, a late analysis only
+        // delays the light, it never makes the audio underrun
+        t.setPriority(Thread.NORM_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Starts the background thread of the AudioAnalyzer.
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new AudioAnalyzer();
+    }
+
+    /**
+     * Copies mixed samples into the ring buffer. Called by the thread
+     * of the InternalPlayer after writing the samples to the audio line.
+     *
+     * @param     b          The samples mixed without the track volumes,
+     *                       16 bit range, not clipped
+     * @param     n          The number of samples
+     * @param     channels   The number of channels
+     * @param     rate       The sample rate (Hz)
+     * @param     buffered   The frames written to the audio line but
+     *                       not yet played
+     */
+    public static void feed(int b[], int n, int channels, int rate, long buffered) {
+        AudioAnalyzer a = theOne;
+        if (a != null) a.put(b, n, channels, rate, buffered);
+    }
+
+    /**
+     * Delivers the actual value of a modulation source
+     *
+     * @param     source   The source, one of RMS, BASS, MID, TREBLE, BEAT
+     * @return             The value (0..1)
+     */
+    public static float get(int source) {
+        AudioAnalyzer a = theOne;
+        if ((a == null) || !a.active) return 0.0f;
+        switch (source) {
+        case RMS:
+            return a.rms;
+        case BASS:
+            return a.band[0];
+        case MID:
+            return a.band[1];
+        case TREBLE:
+            return a.band[2];
+        case BEAT:
+            long t = (System.nanoTime() - a.lastBeat) / 1000000;
+            return (float) Math.exp(-t / BEAT_DECAY_MSECS);
+        default:
+            return 0.0f;
+        }
+    }
+
+    /**
+     * Delivers the factor scaling the intensity of a modulated scene.
+     * While no song is analyzed, the intensity is not modulated.
+     *
+     * @param     source   The source, one of RMS, BASS, MID, TREBLE, BEAT
+     * @param     depth    The depth of the modulation (0..1), 1 = the
+     *                     intensity follows the source fully
+     * @return             The factor (0..1)
+     */
+    public static float modulation(int source, float depth) {
+        AudioAnalyzer a = theOne;
+        if ((source == NONE) || (a == null) || !a.active) return 1.0f;
+        return 1.0f - depth + depth * get(source);
+    }
+
+    /**
+     * Parses the name of a modulation source
+     *
+     * @param     s   The name, e.g. 'BASS'
+     * @return        The source, NONE if unknown
+     */
+    public static int parseSource(String s) {
+        String n = s.trim().toUpperCase(Locale.ROOT);
+        for (int i = 1; i < SOURCES.length; i++) {
+            if (SOURCES[i].equals(n)) return i;
+        }
+        return NONE;
+    }
+
+    /**
+     * Delivers a one line summary of the actual values and of the time
+     * spent analyzing
+     *
+     * @return    The summary
+     */
+    public static String summary() {
+        StringBuffer b = new StringBuffer();
+        for (int s = 1; s < SOURCES.length; s++) {
+            b.append(SOURCES[s]+" "+String.format(Locale.ROOT, "%.2f", get(s))+", ");
+        }
+        b.append((theOne != null) ? theOne.beats : 0);
+        b.append(" beats, analysis "+timing.summary());
+        return b.toString();
+    }
+
+    /**
+     * Measures the CPU time needed to analyze a song. The song is decoded
+     * first, the time for decoding is not included.
+     *
+     * @param     song   The song number
+     * @param     secs   The max. time of audio to analyze (secs),
+     *                   at most MAX_BENCHMARK_SECS
+     * @return           The result, CPU time per second of audio
+     * @throws    Exception if the song cannot be decoded
+     */
+    public static String benchmark(int song, int secs) throws Exception {
+        if ((secs < 1) || (secs > MAX_BENCHMARK_SECS)) throw new IllegalArgumentException("invalid time "+secs);
+        Voice v = new Voice(song, false);
+        int n = AudioMixer.BLOCK_FRAMES * v.channels;
+        int mix[] = new int[n];
+        // the decoded song is kept in memory, check the size before allocating
+        long size = (long) secs * v.rate;
+        if (size > (long) MAX_BENCHMARK_SECS * MAX_RATE) {
+            v.close();
+            throw new IllegalArgumentException("invalid sample rate "+v.rate);
+        }
+        int frames = (int) size;
+        float mono[] = new float[frames];
+        int f = 0;
+        while ((f < frames) && !v.hasEnded()) {
+            for (int i = 0; i < n; i++) mix[i] = 0;
+            int m = v.mixInto(mix, n);
+            for (int i = 0; (i < m) && (f < frames); i += v.channels) {
+                int s = 0;
+                for (int c = 0; c < v.channels; c++) s += mix[i+c];
+                mono[f++] = s / (32768.0f * v.channels);
+            }
+        }
+        v.close();
+        if (f < FFT_SIZE) throw new Exception("song too short");
+        AudioAnalyzer a = new AudioAnalyzer(true);
+        // the first pass lets the JIT compile the analysis
+        for (int p = 0; p < 2; p++) {
+            a.beats = 0;
+            long t0 = System.nanoTime();
+            for (int end = FFT_SIZE; end <= f; end += HOP_SIZE) a.analyze(mono, end - FFT_SIZE, v.rate);
+            long cpu = System.nanoTime() - t0;
+            if (p == 0) continue;
+            long audio = (f * 1000000000L) / v.rate;
+            long hops = (f - FFT_SIZE) / HOP_SIZE + 1;
+            return (f / v.rate)+" secs of audio in "+(cpu / 1000000)+" msecs, "
+                +String.format(Locale.ROOT, "%.2f", (100.0 * cpu) / audio)+"% CPU, "
+                +(cpu / hops / 1000)+" usecs per FFT, "+a.beats+" beats";
+        }
+        return "";
+    }
+
+    /**
+     * Constructs an AudioAnalyzer without background thread, used
+     * by benchmark()
+     *
+     * @param     offline   Ignored, distinguishes the constructors
+     */
+    private AudioAnalyzer(boolean offline) {
+    }
+
+    /**
+     * Copies mixed samples into the ring buffer, as mono samples
+     *
+     * @param     b          The samples, 16 bit range
+     * @param     n          The number of samples
+     * @param     channels   The number of channels
+     * @param     rate       The sample rate (Hz)
+     * @param     buffered   The frames not yet played
+     */
+    private void put(int b[], int n, int channels, int rate, long buffered) {
+        int p = written;
+        float scale = 1.0f / (32768.0f * channels);
+        for (int i = 0; i + channels <= n; i += channels) {
+            int s = 0;
+            for (int c = 0; c < channels; c++) s += b[i+c];
+            ring[p & (RING_SIZE-1)] = s * scale;
+            p++;
+        }
+        sampleRate = rate;
+        delay = (int) Math.min(buffered, RING_SIZE - FFT_SIZE - 2*AudioMixer.BLOCK_FRAMES);
+        // publish the samples after they have been written
+        written = p;
+        fed = System.nanoTime();
+    }
+
+    /**
+     * The background thread. Analyzes the latest samples whenever
+     * HOP_SIZE new samples have been played.
+     */
+    public void run() {
+        int done = 0;
+        for (;;) {
+            try {
+                Thread.sleep(POLL_MSECS);
+            } catch (InterruptedException e) {
+            }
+            // nothing fed for a while, the player has stopped
+            active = (System.nanoTime() - fed) < IDLE_MSECS * 1000000L;
+            if (!active) continue;
+            int end = written - delay;
+            if (end - done < HOP_SIZE) continue;
+            // skip hops if the analysis fell behind
+            if (end - done > 4*HOP_SIZE) done = end - HOP_SIZE;
+            while (end - done >= HOP_SIZE) {
+                done += HOP_SIZE;
+                long t0 = System.nanoTime();
+                analyze(ring, done - FFT_SIZE, sampleRate);
+                timing.record(System.nanoTime() - t0);
+            }
+        }
+    }
+
+    /**
+     * Analyzes FFT_SIZE samples, updates the modulation sources
+     *
+     * @param     s       The samples, the ring buffer or a whole song
+     * @param     start   The index of the first sample, taken modulo
+     *                    the length of 's' (a power of 2 for the ring)
+     * @param     rate    The sample rate (Hz)
+     */
+    private void analyze(float s[], int start, int rate) {
+        int mask = (s == ring) ? RING_SIZE-1 : -1;
+        float sum = 0.0f;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            float x = s[(start + i) & mask];
+            sum += x*x;
+            re[i] = x * WINDOW[i];
+            im[i] = 0.0f;
+        }
+        fft();
+        // the loudness before the track volumes, full scale sine = 1
+        rms = Math.min(1.0f, (float) Math.sqrt(2.0f * sum / FFT_SIZE));
+        // the energy of the bands, normalized by their recent peak
+        float hz = (float) rate / FFT_SIZE;
+        float flux = 0.0f;
+        for (int k = 0; k < 3; k++) {
+            int lo = Math.max(1, (int) (BAND_EDGES[k] / hz));
+            int hi = Math.min(FFT_SIZE/2, (int) (BAND_EDGES[k+1] / hz));
+            float e = 0.0f;
+            for (int i = lo; i < hi; i++) {
+                float m = (float) Math.sqrt(re[i]*re[i] + im[i]*im[i]);
+                e += m;
+                if (k == 0) {
+                    // the rise of the bass, the spectral flux
+                    if (m > magnitude[i]) flux += m - magnitude[i];
+                    magnitude[i] = m;
+                }
+            }
+            peak[k] = Math.max(e, Math.max(peak[k] * PEAK_DECAY, MIN_PEAK));
+            float v = e / peak[k];
+            // fast attack, slower release
+            band[k] = (v > band[k]) ? v : band[k] + (v - band[k]) * RELEASE;
+        }
+        // a beat is a flux well above its average, after a pause
+        float avg = 0.0f;
+        for (int i = 0; i < FLUX_HISTORY; i++) avg += fluxes[i];
+        avg /= FLUX_HISTORY;
+        fluxes[fluxNext] = flux;
+        fluxNext = (fluxNext + 1) % FLUX_HISTORY;
+        sinceBeat += HOP_SIZE;
+        if ((flux > avg * BEAT_THRESHOLD) && (flux > MIN_PEAK) && (sinceBeat > (rate * MIN_BEAT_MSECS) / 1000)) {
+            sinceBeat = 0;
+            lastBeat = System.nanoTime();
+            beats++;
+        }
+    }
+
+    /**
+     * The in-place radix-2 FFT of 're' and 'im'. Uses the precomputed
+     * twiddle factors and bit reversal, allocates no memory.
+     */
+    private void fft() {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            int j = REVERSED[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int size = 2; size <= FFT_SIZE; size *= 2) {
+            int half = size / 2;
+            int step = FFT_SIZE / size;
+            for (int i = 0; i < FFT_SIZE; i += size) {
+                for (int k = 0; k < half; k++) {
+                    float c = COS[k*step];
+                    float sn = SIN[k*step];
+                    int a = i + k;
+                    int b = a + half;
+                    float tr = re[b]*c + im[b]*sn;
+                    float ti = im[b]*c - re[b]*sn;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /** Modulation source: none */
+    public static final int NONE = 0;
+
+    /** Modulation source: the loudness */
+    public static final int RMS = 1;
+
+    /** Modulation source: the energy below 250 Hz */
+    public static final int BASS = 2;
+
+    /** Modulation source: the energy from 250 Hz to 2 kHz */
+    public static final int MID = 3;
+
+    /** Modulation source: the energy above 2 kHz */
+    public static final int TREBLE = 4;
+
+    /** Modulation source: 1 on a beat, decaying until the next one */
+    public static final int BEAT = 5;
+
+    /** the names of the modulation sources */
+    private static final String SOURCES[] = { "NONE", "RMS", "BASS", "MID", "TREBLE", "BEAT" };
+
+    /** the number of samples analyzed at a time, a power of 2 */
+    private static final int FFT_SIZE = 1024;
+
+    /** the number of new samples between two analyses */
+    private static final int HOP_SIZE = 512;
+
+    /** the size of the ring buffer, a power of 2 (about 0.37 secs at 44.1 kHz) */
+    private static final int RING_SIZE = 16384;
+
+    /** the borders of the bands BASS, MID, TREBLE (Hz) */
+    private static final float BAND_EDGES[] = { 20.0f, 250.0f, 2000.0f, 16000.0f };
+
+    /** the decay of the band peaks per analysis, about 5 secs to halve */
+    private static final float PEAK_DECAY = 0.9985f;
+
+    /** the lowest band peak, keeps silence from being amplified */
+    private static final float MIN_PEAK = 0.5f;
+
+    /** the part of a falling band value followed per analysis */
+    private static final float RELEASE = 0.3f;
+
+    /** the number of flux values averaged for the beat threshold (about 0.5 secs) */
+    private static final int FLUX_HISTORY = 43;
+
+    /** the flux compared to its average detected as beat */
+    private static final float BEAT_THRESHOLD = 1.5f;
+
+    /** the min. time between two beats (msecs) */
+    private static final int MIN_BEAT_MSECS = 250;
+
+    /** the time constant of the BEAT decay (msecs) */
+    private static final double BEAT_DECAY_MSECS = 150.0;
+
+    /** the interval the thread checks for new samples (msecs) */
+    private static final int POLL_MSECS = 5;
+
+    /** the time without samples the sources fall to 0 (msecs) */
+    private static final int IDLE_MSECS = 200;
+
+    /** the max. time of audio analyzed by benchmark() (secs), about 23 MB of samples */
+    private static final int MAX_BENCHMARK_SECS = 120;
+
+    /** the highest sample rate of MP3 files (Hz) */
+    private static final int MAX_RATE = 48000;
+
+    /** the Hann window */
+    private static final float WINDOW[] = new float[FFT_SIZE];
+
+    /** the cosine twiddle factors */
+    private static final float COS[] = new float[FFT_SIZE/2];
+
+    /** the sine twiddle factors */
+    private static final float SIN[] = new float[FFT_SIZE/2];
+
+    /** the bit reversed indices */
+    private static final int REVERSED[] = new int[FFT_SIZE];
+
+    static {
+        int bits = Integer.numberOfTrailingZeros(FFT_SIZE);
+        for (int i = 0; i < FFT_SIZE; i++) {
+            WINDOW[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / (FFT_SIZE - 1)));
+            REVERSED[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        for (int i = 0; i < FFT_SIZE/2; i++) {
+            COS[i] = (float) Math.cos(2.0 * Math.PI * i / FFT_SIZE);
+            SIN[i] = (float) Math.sin(2.0 * Math.PI * i / FFT_SIZE);
+        }
+    }
+
+    /** the mono samples fed last */
+    private final float ring[] = new float[RING_SIZE];
+
+    /** the number of samples fed, the ring index is taken modulo RING_SIZE */
+    private volatile int written = 0;
+
+    /** the samples fed but not yet played */
+    private volatile int delay = 0;
+
+    /** the sample rate of the samples fed last (Hz) */
+    private volatile int sampleRate = 44100;
+
+    /** the time samples have been fed last (System.nanoTime()) */
+    private volatile long fed = 0;
+
+    /** true = samples are being fed */
+    private volatile boolean active = false;
+
+    /** the real part of the FFT */
+    private final float re[] = new float[FFT_SIZE];
+
+    /** the imaginary part of the FFT */
+    private final float im[] = new float[FFT_SIZE];
+
+    /** the bass magnitudes of the last analysis */
+    private final float magnitude[] = new float[FFT_SIZE/2];
+
+    /** the recent peak energy of each band */
+    private final float peak[] = new float[3];
+
+    /** the last flux values */
+    private final float fluxes[] = new float[FLUX_HISTORY];
+
+    /** the next entry of 'fluxes' to write */
+    private int fluxNext = 0;
+
+    /** the samples since the last beat */
+    private int sinceBeat = 0;
+
+    /** the loudness (0..1) */
+    private volatile float rms = 0.0f;
+
+    /** the energy of the bands BASS, MID, TREBLE (0..1), read by the DMX thread */
+    private final float band[] = new float[3];
+
+    /** the time of the last beat (System.nanoTime()) */
+    private volatile long lastBeat = 0;
+
+    /** the number of beats detected */
+    private volatile int beats = 0;
+
+    /** the time spent per analysis */
+    private static LatencyHistogram timing = new LatencyHistogram();
+
+    /** the one and only instance of AudioAnalyzer */
+    private static AudioAnalyzer theOne = null;
+
+}
@@ -10,17 +10,21 @@ import java.awt.event.KeyListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.event.MouseWheelEvent;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.JLabel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 /**
  * This is a special version of the channel strip which controls
- * Volume, song selections an start/stop of a Radig DMX MP3 player
+ * Volume, song selections an start/stop of the audio player. The
+ * commands are executed by the AudioEngine, the channel strip
+ * observes the engine to show songs and volumes set by cues.
  * 
  */
 public class AudioChannelStrip extends BasicChannelStrip 
     implements ValueUpdater, ActionListener, 
-    MouseWheelListener, KeyListener {
+    MouseWheelListener, KeyListener, AudioListener {
     
     /**
      * Constructs the channel strip
@@ -51,7 +55,7 @@ public class AudioChannelStrip extends BasicChannelStrip
         add(stopButton, new Rectangle(0, 581, 70, 27));
         // the song number
         songDisplay = new T7Segment("SONG");
-        songDisplay.setSegments("01");
+        showSong();
         add(songDisplay, new Rectangle(0, 609, 70, 70));
         // the fader controls the volume
         fader.setValue(1000);
@@ -59,57 +63,65 @@ public class AudioChannelStrip extends BasicChannelStrip
         // we are processing events from the song display
         songDisplay.addMouseWheelListener(this);
         songDisplay.addKeyListener(this);
+        // show songs and volumes set by cues
+        AudioEngine.addListener(this);
     }
 
 
     /**
-     * Delays program execution for a numver of msecs
-     * 
-     * @param     msecs  The time to delay
+     * Plays the selected song
      */
-    private void delay(int msecs) {
-        try {
-            Thread.sleep(msecs);
-        } catch (Exception e) {
-        }
+    private void play() {
+        AudioEngine.play(song);
     }
 
     /**
-     * Plays the selected song
+     * Called by the AudioEngine when a song has been started.
+     * Shows the song number.
+     * 
+     * @param     snr   The song number
      */
-    private void play() {
-        if (Config.audioMode == Config.RADIG) {
-            DMXTransmit.setPCH(Config.audioPlayStop, 0);
-            delay(50);
-            int songVal = (255*song)/21 + 6; 
-            DMXTransmit.setPCH(Config.audioSongSelect, songVal);
-            DMXTransmit.setPCH(Config.audioPlayStop, 255);
-        } else {
-            MPlayer.play(song);
-        }
+    public void songChanged(int snr) {
+        // do the update MT safe
+        SwingUtilities.invokeLater(
+            new Runnable() {
+                public void run() {
+                    song = snr;
+                    showSong();
+                }
+            }
+        );
     }
 
     /**
-     * Plays the song with the given number
+     * Called by the AudioEngine when the volume has been set
+     * by a command. Moves the fader to the volume. While fading this
+     * is called in every DMX frame, there is never more than one update
+     * pending on the event dispatch thread, it shows the latest volume.
      * 
-     * @param     snr   The song number to play
+     * @param     v  The audio volume (0..100)
      */
-    public void play(int snr) {
-        song = snr;
-        songDisplay.setSegments(String.format("%02d", song));
-        play();
+    public void volumeChanged(int v) {
+        shownVolume = v;
+        // do the update MT safe, unless an update is pending anyway
+        if (volumePending.compareAndSet(false, true)) SwingUtilities.invokeLater(volumeUpdater);
     }
 
     /**
-     * Stops playing the actual song.
+     * Moves the fader to the latest volume. Runs on the event
+     * dispatch thread.
      */
-    public void stop() {
-        if (Config.audioMode == Config.RADIG) {
-            DMXTransmit.setPCH(Config.audioPlayStop, 0);
-        } else {
-            MPlayer.stop();
+    private final Runnable volumeUpdater = new Runnable() {
+        public void run() {
+            // clear the flag first, a volume set from now on needs
+            // another update
+            volumePending.set(false);
+            // the volume is set already, do not send it again
+            showing = true;
+            fader.setValue(shownVolume*10);
+            showing = false;
         }
-    }
+    };
 
     /**
      * Processes button presses (inc / dec/ start /stop) 
@@ -118,16 +130,13 @@ public class AudioChannelStrip extends BasicChannelStrip
      */
     public void actionPerformed(ActionEvent e) {
         if (incButton == e.getSource()) {
-            int maxSong = (Config.audioMode == Config.RADIG) ? 21 : 99;
-            if (song < maxSong) song++;
-            songDisplay.setSegments(String.format("%02d", song));
+            step(1);
         } else if (decButton == e.getSource()) {
-            if (song > 1) song--;
-            songDisplay.setSegments(String.format("%02d", song));
+            step(-1);
         } else if (playButton == e.getSource()) {
             play();
         } else if (stopButton == e.getSource()) {
-            stop();
+            AudioEngine.stop();
         }
     }
 
@@ -139,11 +148,7 @@ public class AudioChannelStrip extends BasicChannelStrip
      */
     public void mouseWheelMoved(MouseWheelEvent e) {
         int notches = e.getWheelRotation();
-        song += notches;
-        int maxSong = (Config.audioMode == Config.RADIG) ? 21 : 99;
-        if (song < 1) song = 1;
-        if (song > maxSong) song = maxSong;
-        songDisplay.setSegments(String.format("%02d", song));
+        for (int i = 0; i < Math.abs(notches); i++) step(notches);
     }
 
     /**
@@ -169,36 +174,56 @@ public class AudioChannelStrip extends BasicChannelStrip
      * @param     e   The key event to process
      */
     public void keyTyped(KeyEvent e) {
-        int maxSong = (Config.audioMode == Config.RADIG) ? 21 : 99;
+        int maxSong = getMaxSong();
         if (e.getKeyChar() == '+') {
-            if (song < maxSong) song++;
-            songDisplay.setSegments(String.format("%02d", song));
+            step(1);
         } else if (e.getKeyChar() == '-') {
-            if (song > 1) song--;
-            songDisplay.setSegments(String.format("%02d", song));
+            step(-1);
         } else if ((e.getKeyChar() >= '0')&&(e.getKeyChar() <= '9')) {
             int i = e.getKeyChar() - '0';
-            song = ((song*10)%100) + i;
+            // typed numbers have as many digits as the highest song
+            song = ((song*10)%((maxSong >= 100) ? 1000 : 100)) + i;
             if (song > maxSong) song=maxSong;
-            songDisplay.setSegments(String.format("%02d", song));
+            showSong();
         }
     }
 
     /**
-     * Sets the audio volume in percent
+     * Selects the next or previous song. With the song library, songs
+     * without a file are skipped.
      * 
-     * @param     v  The audio volume
+     * @param     dir   1 = next, -1 = previous
      */
-    public void volume(int v) {
-
-        if (Config.audioMode == Config.RADIG) {
-            int volume = (v * 255) / 100;
-            DMXTransmit.setPCH(Config.audioVolume, volume);
+    private void step(int dir) {
+        int s = song;
+        if ((Config.audioMode != Config.RADIG) && (SongLibrary.getMaxSong() > 0)) {
+            s = SongLibrary.step(song, dir);
         } else {
-            int volume = v;
-            MPlayer.volume(volume);
+            s += (dir > 0) ? 1 : -1;
         }
-        fader.setValue(v*10);
+        if ((s >= 1) && (s <= getMaxSong())) song = s;
+        showSong();
+    }
+
+    /**
+     * Delivers the highest song number which may be selected
+     * 
+     * @return    The song number
+     */
+    private static int getMaxSong() {
+        if (Config.audioMode == Config.RADIG) return 21;
+        return Math.max(99, SongLibrary.getMaxSong());
+    }
+
+    /**
+     * Shows the selected song number, with the play time from the
+     * song library above it
+     */
+    private void showSong() {
+        songDisplay.setSegments(String.format("%02d", song));
+        Song s = (Config.audioMode != Config.RADIG) ? SongLibrary.get(song) : null;
+        String d = (s != null) ? s.getDurationText() : "";
+        songDisplay.setLabel(d.isEmpty() ? "SONG" : "SONG "+d);
     }
 
     /**
@@ -207,15 +232,19 @@ public class AudioChannelStrip extends BasicChannelStrip
      * @param     v   The fader position (0..1)
      */
     public void updateValue(float v) {
-        if (Config.audioMode == Config.RADIG) {
-            int volume = (int) (v * 255);
-            DMXTransmit.setPCH(Config.audioVolume, volume);
-        } else {
-            int volume = (int) (v * 100);
-            MPlayer.volume(volume);
-        }
+        if (showing) return;
+        AudioEngine.level(v);
     }
 
+    /** true = the fader is moved by the AudioEngine, not by the operator */
+    private boolean showing = false;
+
+    /** the latest volume set by the AudioEngine (0..100) */
+    private volatile int shownVolume = 0;
+
+    /** true = an update of the fader is pending on the event dispatch thread */
+    private final AtomicBoolean volumePending = new AtomicBoolean(false);
+
     /** The play button */
     protected TButton playButton;
     
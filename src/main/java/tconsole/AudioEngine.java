@@ -0,0 +1,409 @@
+package tconsole;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The AudioEngine provides the commands to operate the audio player
+ * independent from the UI. Depending on Config.audioMode, the commands
+ * are sent to mplayer, to the InternalPlayer or to a Radig DMX MP3 player.
+ *
+ * The UI observes the engine. AudioListener objects get informed about
+ * songs started and volume changes commanded by cues.
+ *
+ * Volume fades and crossfades are driven by the DMX frame clock, like
+ * the light fades: DMXTransmit calls tick() with every frame. The
+ * InternalPlayer ramps the gain sample by sample itself, tick() only
+ * follows the fade for the UI. mplayer and the Radig player get volume
+ * steps, mplayer at most every MPLAYER_STEP_MSECS. As there is only one
+ * mplayer process (and one Radig player), their crossfade fades the
+ * old song out in the first half of the time and the new song in
+ * during the second half.
+ *
+ * The InternalPlayer has more voices, which play songs at the same
+ * time. The methods without a voice and the UI use voice 1, the other
+ * voices are controlled by cues and are not shown.
+ */
+public class AudioEngine {
+
+    /**
+     * Private default constructor. AudioEngine provides
+     * static methods only.
+     */
+    private AudioEngine() {
+    }
+
+    /**
+     * Starts the audio player selected by Config.audioMode
+     */
+    public static void initialize() {
+        AudioScheduler.initialize();
+        // no player in a dry run, the audio commands are ignored
+        if (TheApp.dryRun) return;
+        if (Config.audioMode == Config.MPLAYER) MPlayer.initialize();
+        if (Config.audioMode == Config.INTERNAL) {
+            PcmCache.initialize();
+            InternalPlayer.initialize();
+            AudioAnalyzer.initialize();
+        }
+    }
+
+    /**
+     * Plays the song with the given number
+     * 
+     * @param     snr   The song number to play
+     */
+    public static void play(int snr) {
+        pendingSong = 0;
+        song = snr;
+        started = System.nanoTime();
+        generation++;
+        Latency.audioRequested();
+        if (Config.audioMode == Config.RADIG) {
+            // the player starts on the edge of the play channel
+            int songVal = (255*song)/21 + 6; 
+            DMXTransmit.sequence(new int[][] {
+                { Config.audioPlayStop, 0, Config.radigHoldFrames },
+                { Config.audioSongSelect, songVal, 0 },
+                { Config.audioPlayStop, 255, Config.radigHoldFrames } });
+        } else if (Config.audioMode == Config.INTERNAL) {
+            InternalPlayer.play(1, song);
+        } else {
+            MPlayer.play(song);
+        }
+        for (AudioListener l: listeners) l.songChanged(snr);
+    }
+
+    /**
+     * Stops playing the actual song.
+     */
+    public static void stop() {
+        pendingSong = 0;
+        started = 0;
+        generation++;
+        if (Config.audioMode == Config.RADIG) {
+            DMXTransmit.sequence(new int[][] {
+                { Config.audioPlayStop, 0, Config.radigHoldFrames } });
+        } else if (Config.audioMode == Config.INTERNAL) {
+            InternalPlayer.stop(1);
+        } else {
+            MPlayer.stop();
+        }
+    }
+
+    /**
+     * Sets the audio volume in percent. Used by cues, the
+     * listeners get informed about the new volume.
+     * 
+     * @param     percent  The audio volume (0..100)
+     */
+    public static void volume(int percent) {
+        level(percent * 0.01f);
+        for (AudioListener l: listeners) l.volumeChanged(percent);
+    }
+
+    /**
+     * Fades the audio volume. Used by cues, the listeners get
+     * informed about the volume while fading.
+     * 
+     * @param     percent  The audio volume at the end of the fade (0..100)
+     * @param     msecs    The fade time (msecs), 0 = immediately
+     */
+    public static void fadeVolume(int percent, int msecs) {
+        if (msecs <= 0) {
+            volume(percent);
+            return;
+        }
+        startFade(percent, msecs);
+    }
+
+    /**
+     * Starts a volume fade
+     * 
+     * @param     percent  The audio volume at the end of the fade (0..100)
+     * @param     msecs    The fade time (msecs)
+     */
+    private static synchronized void startFade(int percent, int msecs) {
+        fadeFrom = volume;
+        fadeTo = percent;
+        fadeTime = msecs;
+        fadeStart = System.nanoTime();
+        fading = true;
+        if (Config.audioMode == Config.INTERNAL) InternalPlayer.fade(1, percent, msecs);
+    }
+
+    /**
+     * Plays a song with a crossfade from the song actually playing.
+     * 
+     * @param     snr     The song number to play
+     * @param     msecs   The crossfade time (msecs), 0 = cut
+     */
+    public static void crossfade(int snr, int msecs) {
+        if ((msecs <= 0) || !isPlaying()) {
+            play(snr);
+            return;
+        }
+        if (Config.audioMode == Config.INTERNAL) {
+            song = snr;
+            generation++;
+            Latency.audioRequested();
+            InternalPlayer.crossfade(1, snr, msecs);
+            for (AudioListener l: listeners) l.songChanged(snr);
+            return;
+        }
+        // fade out now, start the new song and fade in when silent
+        synchronized (AudioEngine.class) {
+            pendingSong = snr;
+            pendingFade = msecs - msecs/2;
+            pendingVolume = volume;
+            startFade(0, msecs/2);
+        }
+    }
+
+    /**
+     * Plays a song on a voice
+     * 
+     * @param     voice   The voice (1..Config.audioVoices)
+     * @param     snr     The song number to play
+     */
+    public static void play(int voice, int snr) {
+        if (voice == 1) play(snr);
+        else if (isOtherVoice(voice)) InternalPlayer.play(voice, snr);
+    }
+
+    /**
+     * Stops playing on a voice
+     * 
+     * @param     voice   The voice (1..Config.audioVoices)
+     */
+    public static void stop(int voice) {
+        if (voice == 1) stop();
+        else if (isOtherVoice(voice)) InternalPlayer.stop(voice);
+    }
+
+    /**
+     * Fades the audio volume of a voice
+     * 
+     * @param     voice    The voice (1..Config.audioVoices)
+     * @param     percent  The audio volume at the end of the fade (0..100)
+     * @param     msecs    The fade time (msecs), 0 = immediately
+     */
+    public static void fadeVolume(int voice, int percent, int msecs) {
+        if (voice == 1) fadeVolume(percent, msecs);
+        else if (isOtherVoice(voice)) InternalPlayer.fade(voice, percent, msecs);
+    }
+
+    /**
+     * Plays a song on a voice with a crossfade from the song
+     * actually playing on the voice.
+     * 
+     * @param     voice   The voice (1..Config.audioVoices)
+     * @param     snr     The song number to play
+     * @param     msecs   The crossfade time (msecs), 0 = cut
+     */
+    public static void crossfade(int voice, int snr, int msecs) {
+        if (voice == 1) crossfade(snr, msecs);
+        else if (isOtherVoice(voice)) InternalPlayer.crossfade(voice, snr, msecs);
+    }
+
+    /**
+     * Checks if a voice other than voice 1 is available
+     * 
+     * @param     voice   The voice
+     * @return            true if the InternalPlayer has the voice
+     */
+    private static boolean isOtherVoice(int voice) {
+        if ((Config.audioMode == Config.INTERNAL) && InternalPlayer.isVoice(voice)) return true;
+        System.out.println("audio voice "+voice+" is not available");
+        return false;
+    }
+
+    /**
+     * Advances the volume fade. Called by DMXTransmit with every
+     * DMX frame.
+     */
+    public static void tick() {
+        if (!fading) return;
+        int v;
+        int next = 0;
+        int nextVolume = 0;
+        int nextFade = 0;
+        boolean changed;
+        synchronized (AudioEngine.class) {
+            if (!fading) return;
+            long t = (System.nanoTime() - fadeStart) / 1000000;
+            if (t >= fadeTime) {
+                v = fadeTo;
+                fading = false;
+                next = pendingSong;
+                nextVolume = pendingVolume;
+                nextFade = pendingFade;
+                pendingSong = 0;
+            } else {
+                v = fadeFrom + (int) (((fadeTo - fadeFrom) * t) / fadeTime);
+            }
+            changed = (v != volume);
+            volume = v;
+        }
+        // the last step is always sent, mplayer may have skipped the
+        // step before
+        if (changed || !fading) {
+            if (Config.audioMode == Config.RADIG) {
+                DMXTransmit.setPCH(Config.audioVolume, (v * 255) / 100);
+            } else if (Config.audioMode == Config.MPLAYER) {
+                long now = System.nanoTime();
+                if (fading && (now - lastStep < MPLAYER_STEP_MSECS * 1000000L)) {
+                    // no step now, the volume gets sent with a later one
+                } else {
+                    lastStep = now;
+                    MPlayer.volume(v);
+                }
+            }
+        }
+        if (changed) {
+            for (AudioListener l: listeners) l.volumeChanged(v);
+        }
+        // the second half of a crossfade, also if the fade out did not
+        // change the volume. play() does not block, the Radig handshake
+        // is sent with the next frames
+        if (next > 0) {
+            play(next);
+            startFade(nextVolume, nextFade);
+        }
+    }
+
+    /**
+     * Sets the audio volume as a level 0..1. Used by the
+     * volume fader, the listeners do not get informed.
+     * 
+     * @param     v  The audio volume (0..1)
+     */
+    public static void level(float v) {
+        if (v < 0.0f) v = 0.0f;
+        if (v > 1.0f) v = 1.0f;
+        int next;
+        synchronized (AudioEngine.class) {
+            // the operator takes over from a fade
+            fading = false;
+            volume = (int) (v * 100);
+            next = pendingSong;
+        }
+        // a crossfade gets cut
+        if (next > 0) play(next);
+        if (Config.audioMode == Config.RADIG) {
+            DMXTransmit.setPCH(Config.audioVolume, (int) (v * 255));
+        } else if (Config.audioMode == Config.INTERNAL) {
+            InternalPlayer.volume(1, volume);
+        } else {
+            MPlayer.volume(volume);
+        }
+    }
+
+    /**
+     * Delivers the number of the song played last
+     * 
+     * @return    The song number
+     */
+    public static int getSong() {
+        return song;
+    }
+
+    /**
+     * Checks if the audio player is playing a song. With the Radig
+     * player, the state is not known, a song is assumed to play from
+     * PLAY until STOP.
+     * 
+     * @return    true if a song is playing
+     */
+    public static boolean isPlaying() {
+        if (Config.audioMode == Config.INTERNAL) return InternalPlayer.isPlaying();
+        if (Config.audioMode == Config.MPLAYER) return MPlayer.isPlaying();
+        return started != 0;
+    }
+
+    /**
+     * Delivers the playback position in the actual song. With the Radig
+     * player, this is the time since PLAY.
+     * 
+     * @return    The position (msecs)
+     */
+    public static long getPosition() {
+        if (Config.audioMode == Config.INTERNAL) return InternalPlayer.getPosition();
+        if (Config.audioMode == Config.MPLAYER) return (long) (MPlayer.getPosition() * 1000);
+        long t = started;
+        return (t != 0) ? (System.nanoTime() - t) / 1000000 : 0;
+    }
+
+    /**
+     * Delivers the generation of the song playing. The generation
+     * changes whenever a song is started or stopped.
+     * 
+     * @return    The generation
+     */
+    public static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Delivers the actual volume
+     * 
+     * @return    The volume (0..100)
+     */
+    public static int getVolume() {
+        return volume;
+    }
+
+    /**
+     * Adds an observer of the audio state.
+     * 
+     * @param     l    The listener to add
+     */
+    public static void addListener(AudioListener l) {
+        listeners.add(l);
+    }
+
+    /** the song played last */
+    private static volatile int song = 1;
+
+    /** the actual volume (0..100) */
+    private static volatile int volume = 100;
+
+    /** the time the song was started (System.nanoTime()), 0 = stopped */
+    private static volatile long started = 0;
+
+    /** incremented whenever a song is started or stopped */
+    private static volatile int generation = 0;
+
+    /** the min. time between volume steps sent to mplayer (msecs) */
+    private static final int MPLAYER_STEP_MSECS = 100;
+
+    /** true = the volume is fading */
+    private static volatile boolean fading = false;
+
+    /** the volume at the start of the fade (0..100) */
+    private static int fadeFrom = 0;
+
+    /** the volume at the end of the fade (0..100) */
+    private static int fadeTo = 0;
+
+    /** the fade time (msecs) */
+    private static int fadeTime = 0;
+
+    /** the start of the fade (System.nanoTime()) */
+    private static long fadeStart = 0;
+
+    /** the time the last volume step was sent to mplayer (System.nanoTime()) */
+    private static long lastStep = 0;
+
+    /** the song to start when the first half of a crossfade is done, 0 = none */
+    private static int pendingSong = 0;
+
+    /** the fade in time of the pending song (msecs) */
+    private static int pendingFade = 0;
+
+    /** the volume to fade the pending song in to (0..100) */
+    private static int pendingVolume = 0;
+
+    /** the observers of the audio state */
+    private static CopyOnWriteArrayList<AudioListener> listeners = new CopyOnWriteArrayList<AudioListener>();
+
+}
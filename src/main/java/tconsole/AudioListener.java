@@ -0,0 +1,29 @@
+package tconsole;
+
+
+/**
+ * The AudioListener interface is used by the AudioEngine to
+ * tell observers (e.g. the UI) about changes of the audio state.
+ * 
+ */
+public interface AudioListener {
+
+    /**
+     * Tells that a song has been started. Called in the thread
+     * which commanded the change, observers updating the UI must
+     * do this MT safe.
+     * 
+     * @param     song   The song number
+     */
+    public void songChanged(int song);
+
+    /**
+     * Tells that the volume has been set by a command. Called in
+     * the thread which commanded the change, observers updating the
+     * UI must do this MT safe.
+     * 
+     * @param     percent   The volume (0..100)
+     */
+    public void volumeChanged(int percent);
+
+}
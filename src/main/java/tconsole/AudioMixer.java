@@ -0,0 +1,277 @@
+package tconsole;
+
+/**
+ * The AudioMixer sums the songs of several tracks into one stream of
+ * samples for the audio line of the InternalPlayer. Every track plays one
+ * song at a time (plus the old song while a crossfade is running) and has
+ * its own volume, which may be faded. Track 1 is the track controlled by
+ * the volume fader of the UI, the other tracks are used by cues with a
+ * VOICE clause, e.g. an atmosphere under spot effects.
+ *
+ * Mixing a block allocates no memory. All tracks must use the sample
+ * format of the mixer, a song in another format can only be played if
+ * no other track is playing and the mixer is replaced.
+ *
+ * The methods are not thread safe, they are called by the thread of
+ * the InternalPlayer only.
+ */
+public class AudioMixer {
+
+    /**
+     * Constructs an AudioMixer
+     *
+     * @param     tracks     The number of tracks
+     * @param     rate       The sample rate (Hz)
+     * @param     channels   The number of channels
+     */
+    public AudioMixer(int tracks, int rate, int channels) {
+        this.rate = rate;
+        this.channels = channels;
+        current = new Voice[tracks+1];
+        fading = new Voice[tracks+1];
+        gain = new float[tracks+1];
+        gainEnd = new float[tracks+1];
+        gainStep = new float[tracks+1];
+        gainLeft = new int[tracks+1];
+        for (int t = 1; t <= tracks; t++) {
+            gain[t] = 1.0f;
+            gainEnd[t] = 1.0f;
+        }
+        mixed = new int[BLOCK_FRAMES * channels];
+        track = new int[BLOCK_FRAMES * channels];
+        dry = new int[BLOCK_FRAMES * channels];
+    }
+
+    /**
+     * Checks if a song can be played by this mixer
+     *
+     * @param     v   The song
+     * @return        true if the song has the sample format of the mixer
+     */
+    public boolean accepts(Voice v) {
+        return (v.rate == rate) && (v.channels == channels);
+    }
+
+    /**
+     * Starts a song on a track, the song playing on the track is cut
+     * or crossfaded.
+     *
+     * @param     t        The track (1..tracks)
+     * @param     v        The song, null = stop
+     * @param     frames   The crossfade time (frames), 0 = cut
+     */
+    public void start(int t, Voice v, int frames) {
+        Voice old = current[t];
+        current[t] = null;
+        if (fading[t] != null) fading[t].close();
+        fading[t] = null;
+        if (old != null) {
+            if ((v != null) && (frames > 0)) {
+                // keep the old song until it is faded out
+                old.fade(0.0f, frames);
+                fading[t] = old;
+            } else {
+                old.close();
+            }
+        }
+        if (v == null) return;
+        if (frames > 0) {
+            v.fade(0.0f, 0);
+            v.fade(1.0f, frames);
+        }
+        current[t] = v;
+    }
+
+    /**
+     * Fades the volume of a track
+     *
+     * @param     t        The track (1..tracks)
+     * @param     target   The volume at the end of the fade (0..1)
+     * @param     frames   The fade time (frames), 0 = immediately
+     */
+    public void fade(int t, float target, int frames) {
+        if (frames <= 0) {
+            gain[t] = target;
+            gainLeft[t] = 0;
+        } else {
+            gainStep[t] = (target - gain[t]) / frames;
+            gainLeft[t] = frames;
+        }
+        gainEnd[t] = target;
+    }
+
+    /**
+     * Delivers the song started last on a track
+     *
+     * @param     t   The track (1..tracks)
+     * @return        The song, null if it has ended
+     */
+    public Voice getCurrent(int t) {
+        return current[t];
+    }
+
+    /**
+     * Delivers the number of songs playing on all tracks
+     *
+     * @return    The number of songs playing
+     */
+    public int getVoices() {
+        int n = 0;
+        for (int t = 1; t < current.length; t++) {
+            if (current[t] != null) n++;
+            if (fading[t] != null) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Delivers the samples of the last block mixed without the track
+     * volumes. These are analyzed by the AudioAnalyzer, the light does
+     * not follow the volume fader.
+     *
+     * @return    The samples, as many as the last mix() delivered (not clipped)
+     */
+    public int[] getDry() {
+        return dry;
+    }
+
+    /**
+     * Stops all tracks
+     */
+    public void clear() {
+        for (int t = 1; t < current.length; t++) start(t, null, 0);
+    }
+
+    /**
+     * Mixes one block of samples from all tracks. Songs which have
+     * ended or faded out are dropped.
+     *
+     * @param     out   The mixed samples, 16 bit little endian
+     * @return          The number of bytes mixed, 0 if nothing plays
+     */
+    public int mix(byte out[]) {
+        int n = BLOCK_FRAMES * channels;
+        for (int i = 0; i < n; i++) {
+            mixed[i] = 0;
+            dry[i] = 0;
+        }
+        int max = 0;
+        for (int t = 1; t < current.length; t++) {
+            if ((current[t] == null) && (fading[t] == null)) continue;
+            for (int i = 0; i < n; i++) track[i] = 0;
+            int m = 0;
+            if (current[t] != null) {
+                m = current[t].mixInto(track, n);
+                if (current[t].hasEnded() || current[t].isSilent()) {
+                    current[t].close();
+                    current[t] = null;
+                }
+            }
+            if (fading[t] != null) {
+                m = Math.max(m, fading[t].mixInto(track, n));
+                if (fading[t].hasEnded() || fading[t].isSilent()) {
+                    fading[t].close();
+                    fading[t] = null;
+                }
+            }
+            // apply the track volume, frame by frame while fading
+            float g = gain[t];
+            for (int i = 0; i < m; i += channels) {
+                for (int c = 0; c < channels; c++) {
+                    mixed[i+c] += (int) (track[i+c] * g);
+                    dry[i+c] += track[i+c];
+                }
+                if (gainLeft[t] > 0) {
+                    g += gainStep[t];
+                    if (--gainLeft[t] == 0) g = gainEnd[t];
+                }
+            }
+            gain[t] = g;
+            max = Math.max(max, m);
+        }
+        for (int i = 0; i < max; i++) {
+            int s = mixed[i];
+            if (s > 32767) s = 32767;
+            if (s < -32768) s = -32768;
+            out[2*i] = (byte) s;
+            out[2*i+1] = (byte) (s >> 8);
+        }
+        return 2*max;
+    }
+
+    /**
+     * Measures the CPU time needed to play a song on several tracks.
+     * Mixes the song without an audio line, as fast as possible. The
+     * songs are decoded while mixing, like songs not cached. Run on the
+     * machine used in the show to find the voices it can play.
+     *
+     * @param     song     The song number
+     * @param     voices   The number of tracks playing the song
+     * @param     secs     The time of audio to mix (secs)
+     * @return             The result, CPU time per voice
+     * @throws    Exception if the song cannot be played
+     */
+    public static String benchmark(int song, int voices, int secs) throws Exception {
+        Voice first = new Voice(song, false);
+        AudioMixer m = new AudioMixer(voices, first.rate, first.channels);
+        m.start(1, first, 0);
+        for (int t = 2; t <= voices; t++) m.start(t, new Voice(song, false), 0);
+        byte out[] = new byte[2 * BLOCK_FRAMES * first.channels];
+        long blocks = ((long) secs * first.rate) / BLOCK_FRAMES;
+        // the first seconds let the JIT compile the mixing loop
+        for (long b = 0; b < WARMUP_SECS * first.rate / BLOCK_FRAMES; b++) m.mix(out);
+        long t0 = System.nanoTime();
+        long b;
+        for (b = 0; b < blocks; b++) {
+            if (m.mix(out) == 0) break;
+        }
+        long cpu = System.nanoTime() - t0;
+        m.clear();
+        if (b == 0) throw new Exception("no audio");
+        // the real time of the audio mixed
+        long audio = (b * BLOCK_FRAMES * 1000000000L) / first.rate;
+        return voices+" voices, "+((b * BLOCK_FRAMES) / first.rate)+" secs of audio in "
+            +(cpu / 1000000)+" msecs, "+String.format("%.2f", (100.0 * cpu) / audio / voices)
+            +"% CPU per voice";
+    }
+
+    /** the number of frames mixed at a time, the size of a MP3 frame */
+    public static final int BLOCK_FRAMES = 1152;
+
+    /** the time of audio mixed by benchmark() before measuring (secs) */
+    private static final int WARMUP_SECS = 3;
+
+    /** The sample rate (Hz) */
+    public final int rate;
+
+    /** The number of channels */
+    public final int channels;
+
+    /** the song started last on each track */
+    private Voice current[];
+
+    /** the old song fading out on each track */
+    private Voice fading[];
+
+    /** the actual volume of each track (0..1) */
+    private float gain[];
+
+    /** the volume at the end of the fade of each track */
+    private float gainEnd[];
+
+    /** the volume change per frame while fading */
+    private float gainStep[];
+
+    /** the number of frames until the end of the fade */
+    private int gainLeft[];
+
+    /** the sum of all tracks */
+    private int mixed[];
+
+    /** the samples of one track */
+    private int track[];
+
+    /** the sum of all tracks without the track volumes */
+    private int dry[];
+
+}
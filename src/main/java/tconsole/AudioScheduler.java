@@ -0,0 +1,200 @@
+package tconsole;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The AudioScheduler executes cue steps at positions of the song
+ * playing ('AT 12.345 SCENE 4 UP' in the show file). The steps are
+ * scheduled against the playback clock of the audio player, not against
+ * the system clock, so the light follows the music even if the player
+ * started late or the song runs slightly faster or slower.
+ *
+ * The playback position is read from the AudioEngine: the frame position
+ * of the audio line with the InternalPlayer, the ANS_time_pos replies
+ * with mplayer, the time since PLAY with the Radig player. The clock
+ * between two readings runs on the system clock, a deviation of a new
+ * reading is corrected gradually (drift), a large one at once (the
+ * player jumped or restarted).
+ *
+ * Scheduled steps belong to the song playing when they were scheduled.
+ * If another song starts or the playback stops, they are dropped.
+ */
+public class AudioScheduler implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * the AudioScheduler is a call to AudioScheduler.initialize()
+     */
+    private AudioScheduler() {
+        Thread t = new Thread(this, "AudioScheduler");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Starts the background thread of the AudioScheduler.
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new AudioScheduler();
+    }
+
+    /**
+     * Schedules a cue step for the song playing. Steps at a position
+     * which has passed already are executed immediately.
+     *
+     * @param     step   The step, with a position (CueStep.getAt())
+     */
+    public static void schedule(CueStep step) {
+        if (theOne == null) {
+            step.execute();
+            return;
+        }
+        synchronized (theOne) {
+            Entry e = new Entry(step, AudioEngine.getGeneration());
+            // keep the list sorted by position
+            int i = 0;
+            while ((i < theOne.entries.size()) && (theOne.entries.get(i).step.getAt() <= step.getAt())) i++;
+            theOne.entries.add(i, e);
+            theOne.notify();
+        }
+    }
+
+    /**
+     * Delivers a one line summary of the deviations of the executed
+     * steps from their positions
+     *
+     * @return    The summary
+     */
+    public static String summary() {
+        return accuracy.summary();
+    }
+
+    /**
+     * The background thread. Executes the steps when the playback
+     * reaches their positions.
+     */
+    public void run() {
+        for (;;) {
+            Entry due = null;
+            long pos = 0;
+            long wait = POLL_MSECS;
+            synchronized (this) {
+                while (entries.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                // drop the steps of songs no longer playing
+                int gen = AudioEngine.getGeneration();
+                Iterator<Entry> i = entries.iterator();
+                while (i.hasNext()) {
+                    if (i.next().generation != gen) i.remove();
+                }
+                if (!entries.isEmpty() && AudioEngine.isPlaying()) {
+                    pos = clock(gen);
+                    long at = entries.getFirst().step.getAt();
+                    if (at <= pos) due = entries.removeFirst();
+                    else wait = Math.min(at - pos, POLL_MSECS);
+                }
+            }
+            if (due != null) {
+                accuracy.record((pos - due.step.getAt()) * 1000000);
+                // waiting for the song is no GO latency
+                Latency.delayed(System.nanoTime() - due.scheduled);
+                due.step.execute();
+                continue;
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /**
+     * Delivers the playback position of the actual song. Follows the
+     * readings from the AudioEngine with drift correction.
+     *
+     * @param     gen   The generation of the actual song
+     * @return          The playback position (msecs)
+     */
+    private long clock(int gen) {
+        long now = System.nanoTime();
+        long r = AudioEngine.getPosition();
+        if (gen != clockGeneration) {
+            clockGeneration = gen;
+            anchorPos = r;
+            anchorTime = now;
+            return r;
+        }
+        long est = anchorPos + (now - anchorTime) / 1000000;
+        long err = r - est;
+        if (Math.abs(err) > MAX_DRIFT_MSECS) {
+            // the player jumped, follow at once
+            anchorPos = r;
+            anchorTime = now;
+            return r;
+        }
+        // follow the player gradually
+        anchorPos += err / DRIFT_DIVISOR;
+        return est + err / DRIFT_DIVISOR;
+    }
+
+    /**
+     * A cue step waiting for its position.
+     */
+    private static class Entry {
+
+        /**
+         * Constructs an Entry
+         *
+         * @param     step         The step
+         * @param     generation   The generation of the song playing
+         */
+        Entry(CueStep step, int generation) {
+            this.step = step;
+            this.generation = generation;
+            scheduled = System.nanoTime();
+        }
+
+        /** The step */
+        final CueStep step;
+
+        /** The generation of the song the step belongs to */
+        final int generation;
+
+        /** The time the step was scheduled (System.nanoTime()) */
+        final long scheduled;
+    }
+
+    /** the max. time between two checks of the playback position (msecs) */
+    private static final long POLL_MSECS = 5;
+
+    /** a deviation of the player from the clock followed at once (msecs) */
+    private static final long MAX_DRIFT_MSECS = 100;
+
+    /** the part of a smaller deviation corrected with every reading */
+    private static final long DRIFT_DIVISOR = 8;
+
+    /** the scheduled steps, sorted by position */
+    private LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    /** the song generation the clock follows */
+    private int clockGeneration = -1;
+
+    /** the playback position at anchorTime (msecs) */
+    private long anchorPos = 0;
+
+    /** the time of anchorPos (System.nanoTime()) */
+    private long anchorTime = 0;
+
+    /** the deviations of the executed steps from their positions */
+    private static LatencyHistogram accuracy = new LatencyHistogram();
+
+    /** the one and only instance of AudioScheduler */
+    private static AudioScheduler theOne = null;
+
+}
@@ -50,10 +50,10 @@ public class BlackChannelStrip extends ChannelStrip {
     }
 
     /**
-     * Executes 'black# got all channel strips
+     * Executes 'black' for all scenes
      */
     public void executeBlack() {
-        for (ChannelStrip c: strips) c.setBlack();
+        LightingEngine.black();
     }
 
     /** the 'black' button */
@@ -0,0 +1,30 @@
+package tconsole;
+
+import java.awt.Graphics2D;
+
+/**
+ * A CachedWidget is a component which paints itself through the
+ * RenderCache. The widget renders its appearance once into an image,
+ * repaints just copy this image as long as the cache key stays the same.
+ */
+public interface CachedWidget {
+
+    /**
+     * Delivers the cache key of the actual appearance. The key must
+     * contain everything the rendered image depends on (texts, colors,
+     * fonts, state), except the size which is added by the RenderCache.
+     *
+     * @return    The cache key
+     */
+    public String getCacheKey();
+
+    /**
+     * Renders the widget.
+     *
+     * @param     g2   The graphic context to render to
+     * @param     w    The width of the widget
+     * @param     h    The height of the widget
+     */
+    public void render(Graphics2D g2, int w, int h);
+
+}
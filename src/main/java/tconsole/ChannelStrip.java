@@ -17,6 +17,15 @@ import javax.swing.SwingUtilities;
  * If not in edit-mode, all ChanneStrip faders are read only and show the state of the
  * actual output.
  * 
+ * In blind mode (TheApp.blind) the edit button edits a shadow copy of the scene,
+ * the edits do not show up in the output. The shadow copy replaces the scene
+ * when editing ends.
+ * 
+ * The scene and edit buttons always belong to the scene with the column number
+ * of the strip. The label and the fader are bound to a channel of the actual
+ * bank, with more than TheApp.STRIPS channels the same strips show the
+ * channels bank by bank.
+ * 
  */
 public class ChannelStrip extends BasicChannelStrip 
     implements ValueUpdater, ActionListener, Runnable {
@@ -24,21 +33,18 @@ public class ChannelStrip extends BasicChannelStrip
     /**
      * constructs the channel strip  
      * 
-     * @param     c   The channel / column number (1..16)
+     * @param     c   The column number (1..16)
      */
     public ChannelStrip(int c) {
         
         // be sure that 'c' is valid
         super();
         if (c < 1) c = 1;
-        if (c > TheApp.CHANNELS) c = TheApp.CHANNELS;
+        if (c > TheApp.STRIPS) c = TheApp.STRIPS;
         column = c;
 
-        // create a scene for this channel strip 
-        scene = new Scene(c);
-
-        // set the label
-        label.setText(Config.dmxName[c-1]);
+        // the scene for this channel strip
+        scene = Scene.getScene(c);
 
         // add the 'edit' button below the fader
         editButton = new TButton("EDIT");
@@ -49,6 +55,7 @@ public class ChannelStrip extends BasicChannelStrip
         sceneButton = new SceneButton(column, scene);
         sceneButton.setFont(Skin.SANS);
         sceneButton.addActionListener(this);
+        if (scene.isShowing()) sceneButton.setBackground(Skin.GREEN);
         add(sceneButton, new Rectangle(0, 538, 70, 70));
         
         // subscribe for fader position updates, disable the fader by default
@@ -57,6 +64,52 @@ public class ChannelStrip extends BasicChannelStrip
 
         // remember this component in the 'strips' list
         strips[c-1] = this;
+
+        // show the channel of the actual bank
+        bind(bank*TheApp.STRIPS + c);
+    }
+
+    /**
+     * Called by the MainPanel when the scene of this strip has been
+     * faded in or out. Updates the scene button.
+     */
+    public void sceneChanged() {
+        // do the update MT safe
+        SwingUtilities.invokeLater(
+            new Runnable() {
+                public void run() {
+                    sceneButton.setBackground(scene.isShowing() ? Skin.GREEN : Skin.OBJECT);
+                    sceneButton.repaint();
+                }
+            }
+        );
+    }
+
+    /**
+     * Binds the label and the fader to a channel. Channels beyond
+     * TheApp.CHANNELS leave the strip empty.
+     * 
+     * @param     ch   The channel (1..CHANNELS)
+     */
+    private void bind(int ch) {
+        if (ch > TheApp.CHANNELS) ch = 0;
+        channel = ch;
+        // the fader shows the programmed value in edit mode and the
+        // output level otherwise, this must not change any level
+        binding = true;
+        if (ch == 0) {
+            label.setText("");
+            fader.setValue(0.0f);
+        } else {
+            label.setText(Config.dmxName[ch-1]);
+            if (TheApp.edit && (editedScene != null)) {
+                fader.setValue(editedScene.getValue(ch));
+            } else {
+                fader.setValue(DMXTransmit.getLCH(ch));
+            }
+        }
+        binding = false;
+        fader.setEnabled((ch > 0) && (TheApp.edit || TheApp.live));
     }
 
     /** 
@@ -88,8 +141,10 @@ public class ChannelStrip extends BasicChannelStrip
         SwingUtilities.invokeLater(
             new Runnable() {
                 public void run() {
-                    for (int ch=1; ch <= TheApp.CHANNELS; ch++) {
-                        strips[ch-1].fader.setValue(scene.getValue(ch));
+                    Scene edited = editedScene;
+                    if (edited == null) return;
+                    for (ChannelStrip s: strips) {
+                        if (s.channel > 0) s.fader.setValue(edited.getValue(s.channel));
                     }
                     TheApp.mainPanel.repaint();
                 }
@@ -113,25 +168,34 @@ public class ChannelStrip extends BasicChannelStrip
                 editMode = false;
                 editButton.setBackground(Skin.OBJECT);
                 editButton.setForeground(Skin.LINE);
-                scene.setEdit(false);
-                scene.setName(TheApp.mainPanel.hideSceneName());
-                editedScene = null;
+                endEdit();
+                sceneButton.repaint();
                 TheApp.edit = false;
                 enableFaders();
                 Scene.save();
             } else {
-                if (editedScene != null) editedScene.setName(TheApp.mainPanel.hideSceneName());
-                editedScene = scene;
+                if (editedScene != null) {
+                    endEdit();
+                    // show the new name on the scene button
+                    TheApp.mainPanel.repaint();
+                }
+                // blind edits go to a shadow copy, shown in the preview only
+                if (TheApp.blind) {
+                    editedScene = scene.createShadow();
+                    DMXTransmit.setPreview(editedScene);
+                } else {
+                    editedScene = scene;
+                }
                 TheApp.edit = true;
                 enableFaders();
                 for (ChannelStrip s: strips) {
                     if (s == this) {
                         s.editMode = true;
-                        s.editButton.setBackground(Skin.RED);
+                        s.editButton.setBackground(TheApp.blind ? Skin.BLUE : Skin.RED);
                         s.editButton.setForeground(Color.white);
-                        s.scene.setEdit(true);
+                        if (!TheApp.blind) s.scene.setEdit(true);
                         setFadersToProgrammed();
-                        TheApp.mainPanel.showSceneName(s.scene.getName());
+                        TheApp.mainPanel.showSceneName(editedScene.getName());
                     } else {
                         s.editMode = false;
                         s.editButton.setBackground(Skin.OBJECT);
@@ -142,112 +206,112 @@ public class ChannelStrip extends BasicChannelStrip
             }
         // scene button pressed ?
         } else if (sceneButton == e.getSource()) {
-            // toggle scenet show
-            if (sceneShows) {
-                sceneShows = false;
-                sceneButton.setBackground(Skin.OBJECT);
-                scene.fadeOut(TheApp.fadeOut);
+            // toggle scene show, the button gets updated by the engine
+            if (scene.isShowing()) {
+                LightingEngine.fadeOut(column, TheApp.fadeOut);
             } else {
-                sceneShows = true;
-                sceneButton.setBackground(Skin.GREEN);
-                scene.fadeIn(TheApp.fadeIn);
+                LightingEngine.fadeIn(column, TheApp.fadeIn);
             }
         }
     }
 
+    /**
+     * Ends editing the edited scene. The scene gets the name from the
+     * scene name entry field, a shadow copy from blind editing replaces
+     * the scene.
+     */
+    private static void endEdit() {
+        editedScene.setName(TheApp.mainPanel.hideSceneName());
+        if (editedScene.isShadow()) {
+            Scene.getScene(editedScene.getNumber()).commit(editedScene);
+            DMXTransmit.setPreview(null);
+        } else {
+            editedScene.setEdit(false);
+        }
+        editedScene = null;
+    }
+
     /**
      * Called if the operator shanged the fader position 
      * 
      * @param     v   The fader position (0..1)
      */
     public void updateValue(float v) {
+        if (binding || (channel == 0)) return;
         if (TheApp.edit) {
             if (editedScene == null) return;
-            editedScene.setValue(column, v);
+            editedScene.setValue(channel, v);
         } else if (TheApp.live) {
-            DMXTransmit.setLCH(column, v);
+            DMXTransmit.setLCH(channel, v);
         }
     }
 
     /**
-     * Immediately switched the scene of this ChannelStrip black
+     * Delivers the column number, which is the number on the scene button
      * 
+     * @return    The column number (1..16)
      */
-    public void setBlack() {
-        sceneShows = false;
-        sceneButton.setBackground(Skin.OBJECT);
-        scene.fadeOut(0);
+    public int getColumn() {
+        return column;
     }
-    
+
     /**
-     * Delivers the number on the scene button as a string 
+     * Delivers the channel the strip is actually bound to
      * 
-     * @return    The number on the scene button on a string.
+     * @return    The channel (1..CHANNELS), 0 if the strip is empty
      */
-    public String getColumn() {
-        return ""+column;
+    public int getChannel() {
+        return channel;
     }
 
     /**
-     * Fades in the scene as if triggered by mouse click in the UI.
-     * Does this MT safe and uses the fadeTime passed to the call
-     * instead of the standard fade time.
+     * Enables / disables all channel faders according to the global
+     * edit / live edit mode
+     */
+    public static void enableFaders() {
+        boolean enable = TheApp.edit || TheApp.live;
+        for (ChannelStrip c: strips) c.fader.setEnabled(enable && (c.channel > 0));
+    }
+
+    /**
+     * Shows the output levels on the faders of the actual bank.
      * 
-     * @param     fadeTime    The fade time to use (msecs)
+     * @param     levels   The levels of all channels (0..1)
      */
-    public void fadeIn(int fadeTime) {
-        SwingUtilities.invokeLater(
-            new Runnable() {
-                public void run() {
-                    sceneShows = true;
-                    scene.fadeIn(TheApp.fadeIn);
-                    sceneButton.setBackground(Skin.GREEN);
-                    repaint();
-                }
-            }
-        ); 
+    public static void showLevels(float levels[]) {
+        for (ChannelStrip c: strips) {
+            if (c.channel > 0) c.fader.showValue(levels[c.channel-1]);
+        }
     }
 
     /**
-     * Fades out the scene as if triggered by mouse click in the UI.
-     * Does this MT safe and uses the fadeTime passed to the call
-     * instead of the standard fade time.
+     * Switches the channel strips to another bank of channels. 
      * 
-     * @param     fadeTime    The fade time to use (msecs)
+     * @param     b   The bank (0..getBanks()-1)
      */
-    public void fadeOut(int fadeTime) {
-        SwingUtilities.invokeLater(
-            new Runnable() {
-                public void run() {
-                    sceneShows = false;
-                    scene.fadeOut(fadeTime);
-                    sceneButton.setBackground(Skin.OBJECT);
-                    repaint();
-                }
-            }
-        ); 
+    public static void setBank(int b) {
+        if (b < 0) b = 0;
+        if (b >= getBanks()) b = getBanks()-1;
+        bank = b;
+        for (ChannelStrip c: strips) c.bind(bank*TheApp.STRIPS + c.column);
     }
 
     /**
-     * Enables / disables all channel faders according to the global
-     * edit / live edit mode
+     * Delivers the actual bank.
+     * 
+     * @return    The bank (0..getBanks()-1)
      */
-    public static void enableFaders() {
-        boolean enable = TheApp.edit || TheApp.live;
-        for (ChannelStrip c: strips) c.fader.setEnabled(enable);
+    public static int getBank() {
+        return bank;
     }
 
     /**
-     * Delivers a reference to the fader object of a particular
-     * ChannelStrip. 
+     * Delivers the number of banks needed to show all channels.
      * 
-     * @param     ch   The channel strip number (1..16)
-     * @return         The fader used by this strip
+     * @return    The number of banks
      */
-    public static TFader getChannelFader(int ch) {
-        if (ch < 1) ch = 1;
-        if (ch > TheApp.CHANNELS) ch = TheApp.CHANNELS;
-        return strips[ch-1].fader;
+    public static int getBanks() {
+        return (TheApp.CHANNELS + TheApp.STRIPS - 1) / TheApp.STRIPS;
     }
 
     /** the 'scene' button */
@@ -256,20 +320,26 @@ public class ChannelStrip extends BasicChannelStrip
     /** the 'edit' button */
     protected TButton editButton;
     
-    /** the column number of the ChannelStrip */
+    /** the column number of the ChannelStrip, equals the scene number */
     protected int column;
 
+    /** the channel the label and fader are bound to, 0 = none */
+    protected int channel = 0;
+
+    /** true = the fader is set by bind(), not by the operator */
+    private boolean binding = false;
+
     /** true = this scene gets actually edited */
     protected boolean editMode = false;
 
-    /** true = this scene is actually showing */
-    protected boolean sceneShows = false;
-
     /** the scene linked to the scene button in this channel strip */
     protected Scene scene;
 
     /** a static list of all ChannelStrips */
-    protected static ChannelStrip strips[] = new ChannelStrip[TheApp.CHANNELS];
+    protected static ChannelStrip strips[] = new ChannelStrip[TheApp.STRIPS];
+
+    /** the actual bank of channels shown */
+    protected static int bank = 0;
 
     /** the scene which is actually edited */
     protected static Scene editedScene = null;
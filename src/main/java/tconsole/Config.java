@@ -16,11 +16,34 @@ public class Config {
         fadeIn = p.getInteger("scene.default.fade.in", 1200);
         fadeOut = p.getInteger("scene.default.fade.out", 3000);
         String am = p.getString("audio.mode", "MPLAYER");
-        audioMode = "RADIG".equals(am) ? RADIG : MPLAYER;
+        audioMode = "RADIG".equals(am) ? RADIG : "INTERNAL".equals(am) ? INTERNAL : MPLAYER;
         mplayerCLI = p.getString("audio.mplayer.cli", "mplayer -quiet -idle -slave");
         audioSongSelect = p.getInteger("audio.radig.select", 50);
         audioPlayStop = p.getInteger("audio.radig.play", 51);
         audioVolume = p.getInteger("audio.radig.volume", 52);
+        radigHoldFrames = p.getInteger("audio.radig.hold", 2);
+        if (radigHoldFrames < 1) radigHoldFrames = 1;
+        audioLibrary = p.getString("audio.library", ".");
+        audioCacheBytes = p.getInteger("audio.cache.bytes", 128*1024*1024);
+        audioVoices = p.getInteger("audio.voices", 4);
+        if (audioVoices < 1) audioVoices = 1;
+        if (audioVoices > 16) audioVoices = 16;
+        for (int i=1; i<=TheApp.SCENES; i++) {
+            String key = "scene."+String.format("%02d", i)+".modulation";
+            sceneModulation[i-1] = AudioAnalyzer.parseSource(p.getString(key, "NONE"));
+            int d = p.getInteger(key+".depth", 100);
+            if (d < 0) d = 0;
+            if (d > 100) d = 100;
+            sceneModulationDepth[i-1] = d / 100.0f;
+        }
+        controlPort = p.getInteger("control.port", 0);
+        previewUniverse = p.getInteger("dmx.preview.universe", -1);
+        int n = p.getInteger("dmx.channels", TheApp.STRIPS);
+        if (n < 1) n = 1;
+        if (n > DMXTransmit.SIZE) n = DMXTransmit.SIZE;
+        TheApp.CHANNELS = n;
+        dmxName = new String[n];
+        dmxPatch = new int[n];
         for (int i=1; i<=TheApp.CHANNELS; i++) {
             String key = "fader."+String.format("%02d", i)+".label";
             dmxName[i-1] = p.getString(key, "CH-"+String.format("%02d", i));
@@ -28,6 +51,7 @@ public class Config {
         for (int i=1; i<=TheApp.CHANNELS; i++) {
             String key = "fader."+String.format("%02d", i)+".patch";
             dmxPatch[i-1] = p.getInteger(key, i);
+            if ((dmxPatch[i-1] < 1) || (dmxPatch[i-1] > DMXTransmit.SIZE)) dmxPatch[i-1] = i;
         }
     }
 
@@ -37,13 +61,16 @@ public class Config {
     /** Constant for audioMode */
     public static final int RADIG = 1;
 
+    /** Constant for audioMode */
+    public static final int INTERNAL = 2;
+
     /** The default fade in time (msecs) */
     public static int fadeIn = 1200;
 
     /** The default fade out time (msecs) */
     public static int fadeOut = 3000;
 
-    /** The audio player to be used. one of MPLAYER, RADIG */
+    /** The audio player to be used. one of MPLAYER, RADIG, INTERNAL */
     public static int audioMode = MPLAYER;
 
     /** The DMX channel for song select in RADIG audioMode */
@@ -55,6 +82,30 @@ public class Config {
     /** The DMX channel for audio volume in RADIG audioMode */
     public static int audioVolume = 52;
 
+    /** The DMX frames every state of the play / stop handshake is sent in RADIG audioMode */
+    public static int radigHoldFrames = 2;
+
+    /** The folder with the MP3 files, not used in RADIG audioMode */
+    public static String audioLibrary = ".";
+
+    /** The max. memory for songs decoded in advance with INTERNAL audioMode (bytes) */
+    public static int audioCacheBytes = 128*1024*1024;
+
+    /** The number of songs playing at the same time with INTERNAL audioMode */
+    public static int audioVoices = 4;
+
+    /** The audio modulation source of every scene, AudioAnalyzer.NONE = not modulated */
+    public static int sceneModulation[] = new int[TheApp.SCENES];
+
+    /** The depth of the audio modulation of every scene (0..1) */
+    public static float sceneModulationDepth[] = new float[TheApp.SCENES];
+
+    /** The local TCP port for control commands in headless mode (0 = off) */
+    public static int controlPort = 0;
+
+    /** The Artnet universe for the preview of blind edits (-1 = off) */
+    public static int previewUniverse = -1;
+
     /** The command line to start mplayer */
     public static String mplayerCLI = "mplayer -idle -quiet -slave";
 
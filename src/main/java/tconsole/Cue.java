@@ -1,6 +1,9 @@
 package tconsole;
 
 import java.util.Vector;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A Cue contains the data of one cue in the cue list.
@@ -19,6 +22,7 @@ public class Cue implements Runnable {
      */
     public Cue(String t) {
         title = t;
+        number = 0;
         description = new Vector<String>();
         steps = new Vector<CueStep>();
         listener = null;
@@ -60,6 +64,70 @@ public class Cue implements Runnable {
         return title;
     }
 
+    /**
+     * Sets the cue number
+     * 
+     * @param     n   The cue number in 1/1000 (e.g. 214500 for 214.5)
+     */
+    public void setNumber(int n) {
+        number = n;
+    }
+
+    /**
+     * Delivers the cue number
+     * 
+     * @return    The cue number in 1/1000 (e.g. 214500 for 214.5)
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Delivers the cue number as displayed to the operator,
+     * e.g. '214.5'
+     * 
+     * @return    The cue number as a string
+     */
+    public String getNumberText() {
+        String s = Integer.toString(number / 1000);
+        int frac = number % 1000;
+        if (frac == 0) return s;
+        String f = String.format("%03d", frac);
+        while (f.endsWith("0")) f = f.substring(0, f.length()-1);
+        return s+"."+f;
+    }
+
+    /**
+     * Parses a cue number like '214.5'
+     * 
+     * @param     s   The String to parse
+     * @return        The cue number in 1/1000 or -1 if 's' is no
+     *                valid cue number
+     */
+    public static int parseNumber(String s) {
+        int n = 0;
+        int digits = 0;
+        int i = 0;
+        for (; (i < s.length()) && (s.charAt(i) != '.'); i++) {
+            char c = s.charAt(i);
+            if ((c < '0') || (c > '9')) return -1;
+            if (++digits > 6) return -1;
+            n = n*10 + (c-'0');
+        }
+        n *= 1000;
+        if (i < s.length()) {
+            int scale = 100;
+            for (i++; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if ((c < '0') || (c > '9')) return -1;
+                digits++;
+                n += (c-'0') * scale;
+                scale /= 10;
+            }
+        }
+        return (digits > 0) ? n : -1;
+    }
+
     /**
      * Delivers a description line stored with this cue.
      * 
@@ -93,6 +161,89 @@ public class Cue implements Runnable {
      */
     public void addStep(CueStep cs) {
         steps.add(cs);
+        timeline = null;
+    }
+
+    /**
+     * Delivers a cue step of this cue
+     * 
+     * @param     i   The index of the step (0 based)
+     * @return        The cue step
+     */
+    public CueStep getStep(int i) {
+        return steps.elementAt(i);
+    }
+
+    /**
+     * Delivers the number of cue steps in this cue
+     * 
+     * @return    The number of steps
+     */
+    public int getStepCount() {
+        return steps.size();
+    }
+
+    /**
+     * Compiles the timeline of this cue: the start time of every step
+     * relative to the start of the cue. Called by the Prefetcher before
+     * the cue gets executed, does nothing if the timeline exists already.
+     */
+    public void compile() {
+        if (timeline != null) return;
+        long t[] = new long[steps.size()+1];
+        long at = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            t[i] = at;
+            at += steps.elementAt(i).getWaitTime();
+        }
+        // the end of the cue, after a final DELAY step
+        t[steps.size()] = at;
+        timeline = t;
+    }
+
+    /**
+     * Writes this cue in compiled form to a ShowCache file.
+     *
+     * @param     out   The stream to write to
+     * @throws    IOException if writing fails
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        ShowCache.writeString(out, title);
+        out.writeInt(number);
+        out.writeInt(description.size());
+        for (String line: description) ShowCache.writeString(out, line);
+        out.writeInt(steps.size());
+        for (CueStep step: steps) step.writeTo(out);
+    }
+
+    /**
+     * Reads a cue written by writeTo() from a ShowCache file.
+     *
+     * @param     b   The buffer to read from
+     * @return        The cue read
+     */
+    static Cue readFrom(ByteBuffer b) {
+        Cue c = new Cue(ShowCache.readString(b));
+        c.number = b.getInt();
+        int n = b.getInt();
+        for (int i = 0; i < n; i++) c.addDescription(ShowCache.readString(b));
+        n = b.getInt();
+        for (int i = 0; i < n; i++) c.addStep(CueStep.readFrom(b));
+        return c;
+    }
+
+    /**
+     * Waits until a point in time of the timeline. The time spent is
+     * reported as a delay to the Latency trace.
+     * 
+     * @param     t   The point in time (System.nanoTime() based)
+     */
+    private void waitUntil(long t) {
+        long t0 = System.nanoTime();
+        long ms = (t - t0) / 1000000;
+        if (ms <= 0) return;
+        delay(ms);
+        Latency.delayed(System.nanoTime() - t0);
     }
 
     /**
@@ -113,13 +264,30 @@ public class Cue implements Runnable {
      * and finally waits 200 msecs before the execution listener
      * gets informed.
      *
+     * The steps are started at their times in the timeline, relative
+     * to the start of the cue. Unlike sleeping step by step, the time
+     * spent by the steps themselves does not add up. Steps with a song
+     * position (AT) are handed to the AudioScheduler instead.
+     *
      * The delay shall avoid any mouse click bouncing, executing the
      * next cue is blocked in the UI until the first states that it's
      * ready.
      * 
      */
     public void run() {
-        for (CueStep step: steps) step.execute();
+        Latency.mark(Latency.CUE);
+        long t0 = System.nanoTime();
+        compile();
+        long t[] = timeline;
+        for (int i = 0; i < steps.size(); i++) {
+            CueStep step = steps.elementAt(i);
+            if (step.isDelay()) continue;
+            waitUntil(t0 + t[i]*1000000);
+            if (step.getAt() >= 0) AudioScheduler.schedule(step);
+            else step.execute();
+        }
+        waitUntil(t0 + t[steps.size()]*1000000);
+        Latency.cueFinished();
         delay(200);
         if (listener != null) listener.executionFinished();
     }
@@ -127,6 +295,9 @@ public class Cue implements Runnable {
     /** The execution listener to be informed when execution has completed. */
     private ExecutionListener listener;
 
+    /** The cue number in 1/1000 */
+    private int number;
+
     /** The title of the cue. Displayed in bold green letters in the UI */
     private String title;
 
@@ -136,5 +307,8 @@ public class Cue implements Runnable {
     /** The cue steps to be executed */
     private Vector<CueStep> steps;
 
+    /** The start times of the steps (msecs after the start), null = not compiled */
+    private volatile long timeline[] = null;
+
 }
 
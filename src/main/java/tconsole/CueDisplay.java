@@ -45,6 +45,17 @@ public class CueDisplay extends JComponent {
         repaint();
     }
     
+    /**
+     * Sets the status line text displayed at the bottom of the
+     * component, e.g. the GO latency statistics.
+     * 
+     * @param     s    The status line text to show.
+     */
+    public void setStatus(String s) {
+        status = s;
+        repaint();
+    }
+
     /**
      * Paints the component
      * 
@@ -75,7 +86,7 @@ public class CueDisplay extends JComponent {
         g2.setFont(Skin.SANS);
         g2.setColor(Skin.GREEN);
         if (cue != null) {
-            g2.drawString(cue.getTitle(), 4, 50);
+            g2.drawString(cue.getNumberText()+"  "+cue.getTitle(), 4, 50);
             g2.setColor(getForeground());
             g2.setFont(getFont());
             for (int i=0; i<cue.getDescriptionCount(); i++) {
@@ -84,6 +95,11 @@ public class CueDisplay extends JComponent {
         } else {
             g2.drawString("empty cue list.", 4, 50);
         }
+
+        // draw the status line
+        g2.setColor(Skin.LINE);
+        g2.setFont(getFont());
+        g2.drawString(status, 4, h-6);
     }
 
     /** the cue to display */
@@ -92,5 +108,8 @@ public class CueDisplay extends JComponent {
     /** the top line text to show */
     private String topLine;
 
+    /** the status line text to show */
+    private String status = "";
+
 }
 
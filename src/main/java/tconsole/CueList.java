@@ -1,9 +1,13 @@
 package tconsole;
 
 import java.util.Vector;
-import java.util.StringTokenizer;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.io.File;
 import java.io.FileReader;
-import java.io.BufferedReader;
+import java.io.Reader;
+import javax.swing.SwingUtilities;
 
 /**
  * The CueList contains the 'show.txt' in compiled form. When constructed,
@@ -21,6 +25,16 @@ public class CueList {
      * 
      */
     public CueList() {
+        this(new File("show.txt"));
+    }
+
+    /**
+     * Contructs a CueList, loads and parses the given show file
+     * 
+     * @param     f   The show file to load
+     */
+    public CueList(File f) {
+        show = f;
         clear();
         load();
     }
@@ -30,122 +44,134 @@ public class CueList {
      */
     private void clear() {
         cueList = new Vector<Cue>();
+        markers = new HashMap<String,Integer>();
         upcoming = -1;
-        marker1 = -1;
-        marker2 = -1;
-        marker3 = -1;
-        marker4 = -1;
+        buildIndex();
     }
 
     /**
-     * Loads the CueList from the 'show.txt' file.
+     * Loads the CueList from the 'show.txt' file. Uses the compiled
+     * form of the show from the ShowCache if this is up to date, else
+     * parses 'show.txt' and updates the ShowCache.
      */
     public void load() {
+        long t0 = System.nanoTime();
         Vector<Cue> cl = new Vector<Cue>();
-        try {
-            BufferedReader in = new BufferedReader(new FileReader("show.txt"));
-            int lineNo = 0;
-            boolean expectDescription = false;
-            for (;;) {
-                String line = in.readLine();
-                if (line == null) break;
-                lineNo++;
-                int commentStart = line.indexOf("#");
-                if (commentStart == 0) {
-                    line = "";
-                } else if (commentStart > 0) {
-                    line = line.substring(0, commentStart);
-                }
-                line = line.trim();
-                if (expectDescription) {
-                    if (line.length() == 0) {
-                        expectDescription = false;;
-                    } else {
-                        cl.lastElement().addDescription(line);
-                    }
-                } else if (line.length() > 0) {
-                    StringTokenizer st = new StringTokenizer(line);
-                    String token = st.nextToken();
-                    switch (token) {
-                    case "CUE":
-                        line = line.substring(3).trim();
-                        cl.add(new Cue(line));
-                        expectDescription = true;
-                        break;
-                    case "MARKER":
-                        if (!st.hasMoreTokens()) {
-                            Alert.msg("missing number 1..4 after MARKER in show.txt:"+lineNo, TheApp.mainPanel);
-                            return;
-                        }
-                        switch (st.nextToken()) {
-                        case "1":
-                            marker1 = cl.size();
-                            break;
-                        case "2":
-                            marker2 = cl.size();
-                            break;
-                        case "3":
-                            marker3 = cl.size();
-                            break;
-                        case "4":
-                            marker4 = cl.size();
-                            break;
-                        default:
-                            Alert.msg("MARKER index must be 1..4 in show.txt:"+lineNo, TheApp.mainPanel);
-                            return;
-                        }
-                        break;
-                    case "SCENE":
-                        CueStep cScene = CueStep.parseScene(line, lineNo);
-                        if (cScene == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cScene);
-                        break;
-                    case "PLAY":
-                        CueStep cPlay = CueStep.parsePlay(line, lineNo);
-                        if (cPlay == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cPlay);
-                        break;
-                    case "STOP":
-                        CueStep cStop = CueStep.parseStop(line, lineNo);
-                        if (cStop == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cStop);
-                        break;
-                    case "VOLUME":
-                        CueStep cVolume = CueStep.parseVolume(line, lineNo);
-                        if (cVolume == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cVolume);
-                        break;
-                    case "DELAY":
-                        CueStep cDelay = CueStep.parseDelay(line, lineNo);
-                        if (cDelay == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cDelay);
-                        break;
-                    case "BLACK":
-                        CueStep cBlack = CueStep.parseBlack(line, lineNo);
-                        if (cBlack == null) return;
-                        if (cl.size() == 0) return;
-                        cl.lastElement().addStep(cBlack);
-                        break;
-                    default:
-                        Alert.msg("invalid token '"+token+"' in show.txt:"+lineNo, TheApp.mainPanel);
-                        return;
-                    }
-                }
-            }
-            in.close();
+        HashMap<String,Integer> ml = new HashMap<String,Integer>();
+        if (ShowCache.load(show, cl, ml)) {
+            markers = ml;
+            setCues(cl);
+            loaded = true;
+            System.out.println(show.getName()+" loaded from cache, "+cl.size()+" cues, "
+                +((System.nanoTime()-t0)/1000)+" usecs");
+            return;
+        }
+        if (!parse(show)) return;
+        ShowCache.save(show, cueList, markers);
+        loaded = true;
+        System.out.println(show.getName()+" parsed, "+cueList.size()+" cues, "
+            +((System.nanoTime()-t0)/1000)+" usecs");
+    }
+
+    /**
+     * Parses the 'show.txt' file. All errors found are reported
+     * in one Alert box.
+     *
+     * @param     show   The show file to parse
+     * @return           true if the file was parsed without errors
+     */
+    private boolean parse(File show) {
+        ShowParser p;
+        try (Reader in = new FileReader(show)) {
+            p = new ShowParser(in, show.getName());
+            p.parse();
         } catch (Exception e) {
+            return false;
+        }
+        if (p.getErrors().size() > 0) {
+            reportErrors(p.getErrors());
+            return false;
+        }
+        markers = p.getMarkers();
+        setCues(p.getCues());
+        return true;
+    }
+
+    /**
+     * Reports errors found in the show file. All errors are logged,
+     * the first ones are shown in an Alert box. The Alert is shown
+     * by the UI thread, the loading thread is not blocked.
+     *
+     * @param     errors   The errors to report
+     */
+    private void reportErrors(Vector<ShowError> errors) {
+        StringBuffer b = new StringBuffer();
+        for (int i = 0; i < errors.size(); i++) {
+            System.out.println(errors.elementAt(i));
+            if (i < MAX_REPORTED) {
+                b.append(errors.elementAt(i));
+                b.append("\n");
+            }
+        }
+        if (errors.size() > MAX_REPORTED) {
+            b.append("... and "+(errors.size()-MAX_REPORTED)+" more errors\n");
         }
+        // without UI, the errors are logged only
+        if (TheApp.headless) return;
+        String msg = b.toString();
+        SwingUtilities.invokeLater(
+            new Runnable() {
+                public void run() {
+                    Alert.msg(msg, TheApp.mainPanel);
+                }
+            }
+        );
+    }
+
+    /**
+     * Sets the compiled cues, points to the first cue in the list.
+     *
+     * @param     cl   The compiled list of cues
+     */
+    private void setCues(Vector<Cue> cl) {
         cueList = cl;
         if (cueList.size() > 0) {
             upcoming = 0;
         } else {
             upcoming = -1;
         }
+        buildIndex();
+        moved();
+    }
+
+    /**
+     * Builds the lookup indices for cue numbers and titles. Cue numbers
+     * are ascending in the list already, so 'numbers' is sorted by
+     * construction. Titles are sorted case insensitive, 'titleIndex'
+     * maps the sorted titles back to the cue indices.
+     */
+    private void buildIndex() {
+        int n = cueList.size();
+        numbers = new int[n];
+        for (int i = 0; i < n; i++) numbers[i] = cueList.elementAt(i).getNumber();
+        Integer idx[] = new Integer[n];
+        String lower[] = new String[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+            lower[i] = cueList.elementAt(i).getTitle().toLowerCase();
+        }
+        Arrays.sort(idx, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = lower[a].compareTo(lower[b]);
+                return (c != 0) ? c : a - b;
+            }
+        });
+        titles = new String[n];
+        titleIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            titles[i] = lower[idx[i]];
+            titleIndex[i] = idx[i];
+        }
     }
     
     /**
@@ -162,11 +188,51 @@ public class CueList {
         }
     }
 
+    /**
+     * Checks if the show file has been loaded without errors.
+     * 
+     * @return    true if the show file has been loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Takes over the position from another CueList. Used when the
+     * show file has been reloaded. The upcoming cue is the cue with
+     * the same number as the upcoming cue in the other list. If there
+     * is no such cue, the cue with the same title is taken, the one
+     * nearest to the old position if there are more cues with this
+     * title. The position is kept unchanged if neither is found.
+     * 
+     * @param     old   The CueList to take the position from
+     */
+    public void keepPosition(CueList old) {
+        Cue c = old.getUpcoming();
+        if (c == null) return;
+        if (cueList.size() == 0) return;
+        int best = -1;
+        // the cue numbers are unique and increasing
+        for (int i = 0; (i < cueList.size()) && (best < 0); i++) {
+            if (c.getNumber() == cueList.elementAt(i).getNumber()) best = i;
+        }
+        if (best < 0) {
+            for (int i = 0; i < cueList.size(); i++) {
+                if (!c.getTitle().equals(cueList.elementAt(i).getTitle())) continue;
+                if ((best < 0) || (Math.abs(i-old.upcoming) < Math.abs(best-old.upcoming))) best = i;
+            }
+        }
+        if (best < 0) best = Math.min(old.upcoming, cueList.size()-1);
+        upcoming = best;
+        moved();
+    }
+
     /** Goes one Cue back */
     public void prev() {
         if (upcoming < 0) return;
         if (cueList.size() == 0) return;
         if (--upcoming < 0) upcoming = 0;
+        moved();
     }
 
     /** Goes one Cue forward */
@@ -174,48 +240,156 @@ public class CueList {
         if (upcoming < 0) return;
         if (cueList.size() == 0) return;
         if (++upcoming >= cueList.size()) upcoming = cueList.size()-1;
+        moved();
     }
 
-    /** Jumps to marker 1 if this is defined */
-    public void gotoMarker1() {
-        if (marker1 < 0) return;
-        upcoming = marker1;
+    /**
+     * Called whenever the upcoming cue has changed. Lets the Prefetcher
+     * prepare the next cues in background.
+     */
+    private void moved() {
+        if (upcoming >= 0) Prefetcher.prefetch(this, upcoming);
     }
-    
-    /** Jumps to marker 2 if this is defined */
-    public void gotoMarker2() {
-        if (marker2 < 0) return;
-        upcoming = marker2;
+
+    /**
+     * Delivers the number of cues in the list
+     * 
+     * @return    The number of cues
+     */
+    public int size() {
+        return cueList.size();
     }
-    
-    /** Jumps to marker 3 if this is defined */
-    public void gotoMarker3() {
-        if (marker3 < 0) return;
-        upcoming = marker3;
+
+    /**
+     * Delivers a Cue by its index in the list
+     * 
+     * @param     i    The index (0 based)
+     * @return         The Cue or null if there is no such Cue
+     */
+    public Cue getCue(int i) {
+        if ((i < 0) || (i >= cueList.size())) return null;
+        return cueList.elementAt(i);
     }
-    
-    /** Jumps to marker 4 if this is defined */
-    public void gotoMarker4() {
-        if (marker4 < 0) return;
-        upcoming = marker4;
+
+    /**
+     * Makes the Cue with the given index the upcoming one.
+     * 
+     * @param     i    The index (0 based), ignored if out of range
+     */
+    public void setUpcoming(int i) {
+        if ((i < 0) || (i >= cueList.size())) return;
+        upcoming = i;
+        moved();
+    }
+
+    /**
+     * Jumps to a named marker if this is defined.
+     * 
+     * @param     name   The marker name, e.g. '1' for the marker
+     *                   defined with 'MARKER 1'
+     */
+    public void gotoMarker(String name) {
+        setUpcoming(findMarker(name));
     }
 
+    /**
+     * Finds the cue a named marker points to
+     * 
+     * @param     name   The marker name
+     * @return           The cue index or -1 if the marker is not defined
+     */
+    public int findMarker(String name) {
+        Integer i = markers.get(name);
+        if (i == null) return -1;
+        // a marker at the end of the show points to the last cue
+        return Math.min(i, cueList.size()-1);
+    }
+
+    /**
+     * Finds a cue by its number
+     * 
+     * @param     number   The cue number in 1/1000 (e.g. 214500 for 214.5)
+     * @return             The cue index or -1 if there is no such cue
+     */
+    public int findNumber(int number) {
+        int i = Arrays.binarySearch(numbers, number);
+        return (i >= 0) ? i : -1;
+    }
+
+    /**
+     * Finds a cue by the beginning of its title, case insensitive.
+     * If more cues match, the first one at or after the upcoming cue
+     * is returned, if there is none, the first one in the show.
+     * 
+     * @param     prefix   The beginning of the title
+     * @return             The cue index or -1 if no title matches
+     */
+    public int findTitle(String prefix) {
+        String p = prefix.toLowerCase();
+        // binary search for the first title >= prefix
+        int lo = 0;
+        int hi = titles.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (titles[mid].compareTo(p) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        int first = -1;
+        int after = -1;
+        for (int i = lo; (i < titles.length) && titles[i].startsWith(p); i++) {
+            int c = titleIndex[i];
+            if ((first < 0) || (c < first)) first = c;
+            if ((c >= upcoming) && ((after < 0) || (c < after))) after = c;
+        }
+        return (after >= 0) ? after : first;
+    }
+
+    /**
+     * Finds a cue for a search text entered by the operator. The text
+     * may be a cue number, a marker name or the beginning of a cue title,
+     * this is the order the lookups are tried.
+     * 
+     * @param     text   The search text
+     * @return           The cue index or -1 if nothing was found
+     */
+    public int find(String text) {
+        text = text.trim();
+        if (text.length() == 0) return -1;
+        int n = Cue.parseNumber(text);
+        if (n >= 0) {
+            int i = findNumber(n);
+            if (i >= 0) return i;
+        }
+        int i = findMarker(text);
+        if (i >= 0) return i;
+        return findTitle(text);
+    }
+
+    /** The max. number of errors shown in the Alert box */
+    private static final int MAX_REPORTED = 10;
+
+    /** The show file */
+    private File show;
+
+    /** true = the show file has been loaded without errors */
+    private boolean loaded = false;
+
     /** The compiled list of cues */
     private Vector<Cue> cueList;
 
     /** The index of the next cue to execute in cueList (-1 = unset) */
     private int upcoming;
 
-    /** The index of the marker 1 in cueList (-1 = unset) */
-    private int marker1;
+    /** The cue indices of the named markers */
+    private HashMap<String,Integer> markers;
 
-    /** The index of the marker 2 in cueList (-1 = unset) */
-    private int marker2;
-    
-    /** The index of the marker 3 in cueList (-1 = unset) */
-    private int marker3;
+    /** The cue numbers in 1/1000, index = cue index, sorted ascending */
+    private int numbers[];
+
+    /** The cue titles in lower case, sorted */
+    private String titles[];
 
-    /** The index of the marker 4 in cueList (-1 = unset) */
-    private int marker4;
+    /** The cue indices of the sorted titles */
+    private int titleIndex[];
 
 }
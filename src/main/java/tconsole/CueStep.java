@@ -1,5 +1,9 @@
 package tconsole;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * A CueStep is one step of the sequence of operation
  * to be executed when a cue gets executed.
@@ -10,292 +14,267 @@ public class CueStep {
     /**
      * Private default constructor. Prevents the class
      * from being instantiated elsewhere. CueStep objects
-     * shall be created only by the static parseXXX() 
-     * methods
+     * shall be created only by the static factory methods
+     * used by the ShowParser
      *     
      */
     private CueStep() {
     }
 
     /**
-     * Internally used to display parse errors as an 
-     * Alert box
-     * 
-     * @param     msg   The message to be schown in the
-     *                  Alert box
-     * @return          always null.
-     */
-    private static CueStep error(String msg) {
-        Alert.msg(msg, TheApp.mainPanel);
-        return null;
-    }
-
-    /**
-     * Parses a delay time given as a string in seconds
-     * to the delay time as an integer in milliseconds
-     * 
-     * @param     s    The String to parse
-     * @return         The delay time in msecs or -1 in case
-     *                 of an error
-     */
-    private static int parseDelay(String s) {
-        try {
-            return (int) (Float.parseFloat(s) * 1000.0f);
-        } catch (Exception e) {
-            return -1;
-        }
-    }
-
-    /**
-     * Checks if 's' is a valid scene number 
-     * 
-     * @param     s   The string to check.
-     * @return        True if 's' is a valid scene number
-     */
-    private static boolean isValidSceneNumber(String s) {
-        try {
-            int i = Integer.parseInt(s.trim());
-            if (i < 1) return false;
-            if (i > TheApp.SCENES) return false;
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    /**
-     * Executes this cue step
+     * Executes this cue step. Does nothing for DELAY steps.
      */
     public void execute() {
-        
+        // a song given by name is looked up once
+        int played = getPlayedSong();
+
         // what to execute
         switch(command) {
         
         // fade in a scene
         case SCENE_UP:
-            // get the scene channel strip, abort if this fails
-            ChannelStrip upStrip = TheApp.mainPanel.getChannelStrip(scene);
-            if (upStrip == null) return;
+            Latency.mark(Latency.STEP);
             // fade in the scene. use the delay time stored with the
             // cue step or the global fade in time if the step does not
             // specify a delay time (-1 = unspecified)
-            if (delay < 0) {
-                upStrip.fadeIn(TheApp.fadeIn);
-            } else {
-                upStrip.fadeIn(delay);
-            }
+            LightingEngine.fadeIn(target, (delay < 0) ? TheApp.fadeIn : delay);
             break;
         
         // fade out a scene
         case SCENE_DN:
-            // get the scene channel strip, abort if this fails
-            ChannelStrip dnStrip = TheApp.mainPanel.getChannelStrip(scene);
-            if (dnStrip == null) return;
+            Latency.mark(Latency.STEP);
             // fade out the scene. use the delay time stored with the
             // cue step or the global fade out time if the step does not
             // specify a delay time (-1 = unspecified)
-            if (delay < 0) {
-                dnStrip.fadeOut(TheApp.fadeOut);
-            } else {
-                dnStrip.fadeOut(delay);
-            }
+            LightingEngine.fadeOut(target, (delay < 0) ? TheApp.fadeOut : delay);
             break;
 
-        // wait for some milliseconds
-        case DELAY:
-            // perform the wait
-            try {
-                Thread.sleep(delay);
-            } catch (Exception e) {
-            }
-            break;
+        // DELAY steps are not executed, Cue.run() waits for the
+        // offsets of the timeline built by Cue.compile()
 
         // command black to all scenes
         case BLACK:
-            // get the channel strip containing the BLACK button
-            BlackChannelStrip blackStrip = TheApp.mainPanel.getBlackChannelStrip();
-            if (blackStrip == null) return;
-            // execute black on this
-            blackStrip.executeBlack();
+            Latency.mark(Latency.STEP);
+            LightingEngine.black();
             break;
         
         // plays an audio file
         case PLAY:
-            // get the audio channel strip
-            AudioChannelStrip playStrip = TheApp.mainPanel.getAudioChannelStrip();
-            if (playStrip == null) return;
-            // play the audio file
-            playStrip.play(song);
+            if (played >= 0) AudioEngine.play(voice, played);
+            else System.out.println("PLAY: song '"+songName+"' not in the library");
             break;
         
         // stops audio playing
         case STOP:
-            // get the audio channel strip
-            AudioChannelStrip stopStrip = TheApp.mainPanel.getAudioChannelStrip();
-            if (stopStrip == null) return;
-            // play the audio file
-            stopStrip.stop();
+            AudioEngine.stop(voice);
             break;
         
-        // sets audio volume
+        // sets or fades the audio volume
         case VOLUME:
-            // get the audio channel strip
-            AudioChannelStrip volumeStrip = TheApp.mainPanel.getAudioChannelStrip();
-            if (volumeStrip == null) return;
-            // play the audio file
-            volumeStrip.volume(song);
+            AudioEngine.fadeVolume(voice, song, delay);
+            break;
+
+        // plays an audio file with a crossfade
+        case XFADE:
+            if (played >= 0) AudioEngine.crossfade(voice, played, delay);
+            else System.out.println("XFADE: song '"+songName+"' not in the library");
             break;
         }
     }
 
     /**
-     * Parses a SCENE line from the show.txt file. Creates a CueStep
-     * object for this SCENE 
+     * Creates a SCENE step which fades a scene in or out
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @param     sc       The scene number (1..16)
+     * @param     up       true = fade in, false = fade out
+     * @param     fade     The fade time (msecs), -1 = use the actual
+     *                     global fade in/out time at execution time
+     * @return             The CueStep created
      */
-    public static CueStep parseScene(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = SCENE
-        // token[1] = scene number 1..16
-        // token[2] = UP or DOWN
-        // token[3] = delay time in seconds (optional)
-        String tokens[] = s.split(" +");
-        // tokens 0..2 are mandatory
-        if (tokens.length < 3) return error("SCENE missing scene number or dicrection, show.txt:"+lineNr);
+    public static CueStep scene(int sc, boolean up, int fade) {
         CueStep c = new CueStep();
-        // decode the SCENE_UP/SCENE_DN command
-        if ("UP".equals(tokens[2])) c.command = Command.SCENE_UP;
-        else if ("DOWN".equals(tokens[2])) c.command = Command.SCENE_DN;
-        else return error("SCENE must specify UP or DOWN, show.txt:"+lineNr);
-        // the scene number
-        c.scene = tokens[1];
-        if (!isValidSceneNumber(c.scene)) return error("SCENE with invalid scene number, show.txt:"+lineNr);
-        // if a delay time is given, set it. without if the time is set to -1
-        // which means to get the actual global fade in/out time at execution
-        // time
-        if (tokens.length == 4) {
-            c.delay = parseDelay(tokens[3]);
-            if (c.delay < 0) return error("SCENE with invalid fade time, show.txt:"+lineNr);
-        } else {
-            c.delay = -1;
-        }
+        c.command = up ? Command.SCENE_UP : Command.SCENE_DN;
+        c.scene = sc;
+        c.target = Scene.getScene(sc);
+        c.delay = fade;
         return c;
     }
 
     /**
-     * Parses a DELAY line from the show.txt file. Creates a CueStep
-     * object for this DELAY step
+     * Creates a DELAY step
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @param     t    The delay time (msecs)
+     * @return         The CueStep created
      */
-    public static CueStep parseDelay(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = DELAY
-        // token[1] = delay time in seconds
-        String tokens[] = s.split(" +");
-        if (tokens.length != 2) return error("DELAY must be followed by time ind secs, show.txt:"+lineNr);
+    public static CueStep delay(int t) {
         CueStep c = new CueStep();
         c.command = Command.DELAY;
-        c.delay = parseDelay(tokens[1]);
-        if (c.delay < 0) return error("DELAY with invalid time, show.txt:"+lineNr);
-        c.scene = "";
+        c.delay = t;
         return c;
     }
 
     /**
-     * Parses a BLACK line from the show.txt file. Creates a CueStep
-     * object for this BLACK step
+     * Creates a BLACK step
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @return         The CueStep created
      */
-    public static CueStep parseBlack(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = BLACK
+    public static CueStep black() {
         CueStep c = new CueStep();
-        String tokens[] = s.split(" +");
-        if (tokens.length != 1) return error("BLACK must not be followed by parameters, show.txt:"+lineNr);
         c.command = Command.BLACK;
-        c.scene = "";
-        c.delay = 0;
         return c;
     }
 
     /**
-     * Parses a PLAY line from the show.txt file. Creates a CueStep
-     * object for this PLAY step
+     * Creates a PLAY step
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @param     song   The song number
+     * @param     name   The song name, null if the song is given by number
+     * @return           The CueStep created
      */
-    public static CueStep parsePlay(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = PLAY
-        // token[1] = song number
-        String tokens[] = s.split(" +");
-        if (tokens.length != 2) return error("PLAY must be followed by song number, show.txt:"+lineNr);
+    public static CueStep play(int song, String name) {
         CueStep c = new CueStep();
         c.command = Command.PLAY;
-        try {
-            c.song = Integer.parseInt(tokens[1]);
-        } catch (Exception e) {
-            return error("PLAY with invalid song number, show.txt:"+lineNr);
-        }
-        c.scene = "";
-        c.delay = 0;
+        c.song = song;
+        c.songName = name;
         return c;
     }
 
     /**
-     * Parses a STOP line from the show.txt file. Creates a CueStep
-     * object for this STOP step
+     * Creates a STOP step
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @return         The CueStep created
      */
-    public static CueStep parseStop(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = STOP
+    public static CueStep stop() {
         CueStep c = new CueStep();
-        String tokens[] = s.split(" +");
-        if (tokens.length != 1) return error("STOP must not be followed by parameters, show.txt:"+lineNr);
         c.command = Command.STOP;
-        c.scene = "";
-        c.delay = 0;
         return c;
     }
 
     /**
-     * Parses a VOLUME line from the show.txt file. Creates a CueStep
-     * object for this VOLUME step
+     * Creates a VOLUME step
      * 
-     * @param     s        The line to parse
-     * @param     lineNr   The line number, used for error messages
-     * @return             The CueStep created ot null in case of a parse error
+     * @param     v      The audio volume (0..100)
+     * @param     fade   The fade time (msecs), 0 = set immediately
+     * @return           The CueStep created
      */
-    public static CueStep parseVolume(String s, int lineNr) {
-        // the tokens of the line
-        // token[0] = VOLUME
-        // token[1] = song number
-        String tokens[] = s.split(" +");
-        if (tokens.length != 2) return error("VOLUME must be followed by value 0..100, show.txt:"+lineNr);
+    public static CueStep volume(int v, int fade) {
         CueStep c = new CueStep();
         c.command = Command.VOLUME;
-        try {
-            c.song = Integer.parseInt(tokens[1]);
-        } catch (Exception e) {
-            return error("VOLUME with invalis value, show.txt:"+lineNr);
+        c.song = v;
+        c.delay = fade;
+        return c;
+    }
+
+    /**
+     * Creates a XFADE step
+     * 
+     * @param     song   The song number
+     * @param     name   The song name, null if the song is given by number
+     * @param     fade   The crossfade time (msecs)
+     * @return           The CueStep created
+     */
+    public static CueStep crossfade(int song, String name, int fade) {
+        CueStep c = new CueStep();
+        c.command = Command.XFADE;
+        c.song = song;
+        c.songName = name;
+        c.delay = fade;
+        return c;
+    }
+
+    /**
+     * Delivers the song started by this step. A song given by name is
+     * looked up in the SongLibrary now, the numbers of the songs may
+     * have changed since the show was parsed.
+     * 
+     * @return         The song number, 0 if this is no PLAY or XFADE step,
+     *                 -1 if the song is no longer in the library
+     */
+    public int getPlayedSong() {
+        if ((command != Command.PLAY) && (command != Command.XFADE)) return 0;
+        return (songName != null) ? SongLibrary.find(songName) : song;
+    }
+
+    /**
+     * Sets the position in the song playing the step is executed at
+     * 
+     * @param     msecs   The position (msecs), -1 = execute in sequence
+     */
+    public void setAt(int msecs) {
+        at = msecs;
+    }
+
+    /**
+     * Delivers the position in the song playing the step is executed at
+     * 
+     * @return         The position (msecs), -1 = execute in sequence
+     */
+    public int getAt() {
+        return at;
+    }
+
+    /**
+     * Sets the audio voice of a PLAY, STOP, VOLUME or XFADE step
+     * 
+     * @param     v   The voice (1..Config.audioVoices)
+     */
+    public void setVoice(int v) {
+        voice = v;
+    }
+
+    /**
+     * Checks if this is a DELAY step
+     * 
+     * @return         true if this step waits only
+     */
+    public boolean isDelay() {
+        return command == Command.DELAY;
+    }
+
+    /**
+     * Delivers the time this step waits
+     * 
+     * @return         The delay time (msecs), 0 if this is no DELAY step
+     */
+    public int getWaitTime() {
+        return isDelay() ? delay : 0;
+    }
+
+    /**
+     * Writes this cue step in compiled form to a ShowCache file.
+     *
+     * @param     out   The stream to write to
+     * @throws    IOException if writing fails
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(command.ordinal());
+        out.writeInt(scene);
+        out.writeInt(delay);
+        out.writeInt(song);
+        out.writeInt(at);
+        out.writeInt(voice);
+        ShowCache.writeString(out, (songName != null) ? songName : "");
+    }
+
+    /**
+     * Reads a cue step written by writeTo() from a ShowCache file.
+     *
+     * @param     b   The buffer to read from
+     * @return        The cue step read
+     */
+    static CueStep readFrom(ByteBuffer b) {
+        CueStep c = new CueStep();
+        c.command = Command.values()[b.get()];
+        c.scene = b.getInt();
+        c.delay = b.getInt();
+        c.song = b.getInt();
+        c.at = b.getInt();
+        c.voice = b.getInt();
+        String n = ShowCache.readString(b);
+        if (!n.isEmpty()) c.songName = n;
+        if ((c.command == Command.SCENE_UP) || (c.command == Command.SCENE_DN)) {
+            c.target = Scene.getScene(c.scene);
         }
-        c.scene = "";
-        c.delay = 0;
         return c;
     }
 
@@ -303,15 +282,27 @@ public class CueStep {
     private Command command = Command.NOP;
     
     /** The scene number this step modifies */
-    private String scene = "";
+    private int scene = 0;
+
+    /** The scene this step modifies, resolved when the step is created */
+    private Scene target = null;
 
     /** The delay time specified for this step */
     private int delay = 0;
 
+    /** The position in the song playing to execute at (msecs), -1 = in sequence */
+    private int at = -1;
+
+    /** The audio voice of PLAY, STOP, VOLUME and XFADE commands */
+    private int voice = 1;
+
     /** The song number with PLAY commands */
     private int song = 0;
 
+    /** The song name with PLAY and XFADE commands, null = by number */
+    private String songName = null;
+
     /** The known CueStep types */
-    private enum Command { NOP, SCENE_UP, SCENE_DN, DELAY, BLACK, PLAY, STOP, VOLUME };
+    private enum Command { NOP, SCENE_UP, SCENE_DN, DELAY, BLACK, PLAY, STOP, VOLUME, XFADE };
 
 }
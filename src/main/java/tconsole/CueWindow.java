@@ -1,13 +1,17 @@
 package tconsole;
 
 import javax.swing.JFrame;
+import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.DocumentEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.Rectangle;
+import java.io.File;
 
 /**
  * The CueWindow is shown when the operator clicks the 'CUES' button.
@@ -16,7 +20,8 @@ import java.awt.Rectangle;
  * 
  */
 public class CueWindow extends JFrame 
-    implements ActionListener, ExecutionListener, KeyListener {
+    implements ActionListener, ExecutionListener, KeyListener, ShowListener,
+    DocumentListener {
 
     /**
      * Constructs and shows the CueWindow.
@@ -32,9 +37,6 @@ public class CueWindow extends JFrame
         cueButton = b;
         cueButton.setEnabled(false);
 
-        // create a new CueList from the 'show.txt' file
-        cueList = new CueList();
-
         // some basic window stuff, keep the window always on top
         setTitle("TConsole16 Cue List");
         setResizable(false);
@@ -42,7 +44,7 @@ public class CueWindow extends JFrame
 
         // the panel contains all components of the window
         panel = new TPanel();
-        panel.setSize(400, 250);
+        panel.setSize(400, 276);
 
         // 'display' shows title and description of the cue which
         // will be run when 'go' is activated. display will get and
@@ -50,9 +52,6 @@ public class CueWindow extends JFrame
         // while the window ist showing.
         display = new CueDisplay();
         panel.add(display, new Rectangle(0,0,399,189));
-        Cue cue = cueList.getUpcoming();
-        display.setCue(cue);
-        display.setTopLine((cue!=null) ? "next cue:": "");
         display.addKeyListener(this);
         display.requestFocus();
 
@@ -107,10 +106,66 @@ public class CueWindow extends JFrame
         next.setFocusOnMouseEnter(false);
         panel.add(next, new Rectangle(360,225,39,24));
 
+        // the jump box searches cues by number, marker name or the
+        // beginning of the title while the operator types. ENTER
+        // jumps to the cue found, ESC cancels.
+        jump = new JTextField();
+        jump.setFont(Skin.DIALOG14);
+        jump.setToolTipText("jump to cue number, marker or title");
+        jump.addActionListener(this);
+        jump.addKeyListener(this);
+        jump.getDocument().addDocumentListener(this);
+        panel.add(jump, new Rectangle(0,251,399,24));
+
         add(panel);
         pack();
         setLocationRelativeTo(null);
-    
+
+        // load the 'show.txt' file in background. the watcher reloads
+        // the file whenever it gets changed while the window is open.
+        watcher = new ShowWatcher(new File("show.txt"), this);
+    }
+
+    /**
+     * The callback method invoked by the ShowWatcher when the 'show.txt'
+     * file has been (re-)loaded. Replaces the actual CueList by the new one,
+     * keeps the position in the show.
+     * 
+     * @param     cl   The new CueList
+     */
+    public void showLoaded(CueList cl) {
+        // do the update MT safe
+        SwingUtilities.invokeLater(
+            new Runnable() {
+                public void run() {
+                    if (cueList != null) cl.keepPosition(cueList);
+                    cueList = cl;
+                    // the index of a jump refers to the old cues
+                    pendingJump = -1;
+                    if (jump.getText().length() > 0) {
+                        search();
+                    } else if (!executing) {
+                        Cue cue = cueList.getUpcoming();
+                        display.setTopLine((cue!=null) ? "next cue:": "");
+                        display.setCue(cue);
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Starts the execution of the upcoming cue.
+     */
+    private void go() {
+        Cue c = cueList.getUpcoming();
+        if (c == null) return;
+        Latency.go();
+        executing = true;
+        display.setTopLine("executing ...");
+        go.setEnabled(false);
+        display.setEnabled(false);
+        c.execute(this);
     }
 
     /**
@@ -122,13 +177,17 @@ public class CueWindow extends JFrame
      * when cie execution started.
      */
     public void executionFinished() {
-        cueList.next();
         // do the update MT safe
         SwingUtilities.invokeLater(
             new Runnable() {
                 public void run() {
+                    executing = false;
+                    cueList.next();
+                    if (pendingJump >= 0) cueList.setUpcoming(pendingJump);
+                    pendingJump = -1;
                     display.setTopLine("next cue:");
                     display.setCue(cueList.getUpcoming());
+                    display.setStatus("GO latency: "+Latency.summary());
                     go.setEnabled(true);
                     display.setEnabled(true);
                 }
@@ -143,32 +202,47 @@ public class CueWindow extends JFrame
      * @param     e   The action event to process
      */
     public void actionPerformed(ActionEvent e) {
+        // nothing to do while 'show.txt' is being loaded
+        if (cueList == null) return;
+        // ENTER in the jump box
+        if (jump == e.getSource()) {
+            int target = jumpTarget;
+            endJump();
+            if (target < 0) return;
+            if (executing) {
+                // jump when the cue has finished, after the cue
+                // pointer has been advanced
+                pendingJump = target;
+                display.setTopLine("executing, then jump to:");
+                display.setCue(cueList.getCue(target));
+            } else {
+                cueList.setUpcoming(target);
+                display.setCue(cueList.getUpcoming());
+            }
+            return;
+        }
         switch (e.getActionCommand()) {
         case "GO":
-            Cue c = cueList.getUpcoming();
-            display.setTopLine("executing ...");
-            go.setEnabled(false);
-            display.setEnabled(false);
-            if (c != null) c.execute(this);
+            go();
             break;
         case "<":
             cueList.prev();
             display.setCue(cueList.getUpcoming());
             break;
         case "M1":
-            cueList.gotoMarker1();
+            cueList.gotoMarker("1");
             display.setCue(cueList.getUpcoming());
             break;
         case "M2":
-            cueList.gotoMarker2();
+            cueList.gotoMarker("2");
             display.setCue(cueList.getUpcoming());
             break;
         case "M3":
-            cueList.gotoMarker3();
+            cueList.gotoMarker("3");
             display.setCue(cueList.getUpcoming());
             break;
         case "M4":
-            cueList.gotoMarker4();
+            cueList.gotoMarker("4");
             display.setCue(cueList.getUpcoming());
             break;
         case ">":
@@ -189,16 +263,19 @@ public class CueWindow extends JFrame
     protected void processWindowEvent(WindowEvent e) {
         super.processWindowEvent(e);
         if(e.getID() == WindowEvent.WINDOW_CLOSING) {
+            watcher.close();
             cueButton.setEnabled(true);
         }
     }
 
     /**
-     * Processes key press events. does nothing.
+     * Processes key press events. ESC cancels a search
+     * in the jump box.
      * 
      * @param     e  The KeyEvent to process
      */
     public void keyPressed(KeyEvent e) {
+        if ((jump == e.getSource()) && (e.getKeyCode() == KeyEvent.VK_ESCAPE)) endJump();
     }
 
     /**
@@ -208,33 +285,38 @@ public class CueWindow extends JFrame
      * @param     e  The KeyEvent to process
      */
     public void keyTyped(KeyEvent e) {
-        System.out.println("'"+e.getKeyChar()+"'");
+        // keys typed in the jump box are processed by the jump box
+        if (jump == e.getSource()) return;
+        // nothing to do while 'show.txt' is being loaded
+        if (cueList == null) return;
+        // letters and '/' start a search in the jump box
+        if (Character.isLetter(e.getKeyChar()) || (e.getKeyChar() == '/')) {
+            jump.requestFocus();
+            if (e.getKeyChar() != '/') jump.setText(""+e.getKeyChar());
+            return;
+        }
         switch (e.getKeyChar()) {
         case ' ':
-            Cue c = cueList.getUpcoming();
-            display.setTopLine("executing ...");
-            go.setEnabled(false);
-            display.setEnabled(false);
-            if (c != null) c.execute(this);
+            if (!executing) go();
             break;
         case '<':
             cueList.prev();
             display.setCue(cueList.getUpcoming());
             break;
         case '1':
-            cueList.gotoMarker1();
+            cueList.gotoMarker("1");
             display.setCue(cueList.getUpcoming());
             break;
         case '2':
-            cueList.gotoMarker2();
+            cueList.gotoMarker("2");
             display.setCue(cueList.getUpcoming());
             break;
         case '3':
-            cueList.gotoMarker3();
+            cueList.gotoMarker("3");
             display.setCue(cueList.getUpcoming());
             break;
         case '4':
-            cueList.gotoMarker4();
+            cueList.gotoMarker("4");
             display.setCue(cueList.getUpcoming());
             break;
         case '>':
@@ -245,6 +327,68 @@ public class CueWindow extends JFrame
         display.requestFocus();
     }
     
+    /**
+     * Searches the text in the jump box in the CueList and
+     * shows the cue found in the display.
+     */
+    private void search() {
+        if (cueList == null) return;
+        String text = jump.getText();
+        if (text.trim().length() == 0) {
+            jumpTarget = -1;
+            display.setTopLine("next cue:");
+            display.setCue(cueList.getUpcoming());
+            return;
+        }
+        jumpTarget = cueList.find(text);
+        if (jumpTarget < 0) {
+            display.setTopLine("not found: "+text);
+            display.setCue(null);
+        } else {
+            display.setTopLine("jump to (ENTER):");
+            display.setCue(cueList.getCue(jumpTarget));
+        }
+    }
+
+    /**
+     * Ends a search in the jump box, shows the upcoming cue again
+     * and moves the keyboard focus back to the display.
+     */
+    private void endJump() {
+        if (cueList == null) return;
+        jump.setText("");
+        jumpTarget = -1;
+        display.setTopLine(executing ? "executing ..." : "next cue:");
+        display.setCue(cueList.getUpcoming());
+        display.requestFocus();
+    }
+
+    /**
+     * Text was inserted into the jump box.
+     * 
+     * @param     e  The DocumentEvent to process
+     */
+    public void insertUpdate(DocumentEvent e) {
+        search();
+    }
+
+    /**
+     * Text was removed from the jump box.
+     * 
+     * @param     e  The DocumentEvent to process
+     */
+    public void removeUpdate(DocumentEvent e) {
+        search();
+    }
+
+    /**
+     * Attributes of the text in the jump box changed. Does nothing.
+     * 
+     * @param     e  The DocumentEvent to process
+     */
+    public void changedUpdate(DocumentEvent e) {
+    }
+
     /**
      * Processes key release events. does nothing.
      * 
@@ -265,7 +409,22 @@ public class CueWindow extends JFrame
     /** The display for ciúe title and description */
     private CueDisplay display;
     
-    /** The CueList operated by this window */
-    private CueList cueList;
+    /** The jump box to search cues */
+    private JTextField jump;
+
+    /** The index of the cue found with the jump box (-1 = none) */
+    private int jumpTarget = -1;
+
+    /** The index of the cue to jump to when the running cue has finished (-1 = none) */
+    private int pendingJump = -1;
+
+    /** The CueList operated by this window, null while loading */
+    private CueList cueList = null;
+
+    /** Loads and reloads the CueList in background */
+    private ShowWatcher watcher;
+
+    /** true = a cue is being executed */
+    private boolean executing = false;
 
 }
@@ -1,5 +1,6 @@
 package tconsole;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.SwingUtilities;
 import ch.bildspur.artnet.ArtNetClient;
 
@@ -30,7 +31,14 @@ public class DMXTransmit extends Thread
      * 
      */
     public static DMXTransmit initialize() {
-        if (theOne == null) theOne = new DMXTransmit();
+        if (theOne == null) {
+            // the number of channels is known after Config.initialize()
+            accumulator = new float[TheApp.CHANNELS];
+            snapshot = new float[TheApp.CHANNELS];
+            previewLevels = new float[TheApp.CHANNELS];
+            shown = new float[TheApp.CHANNELS];
+            theOne = new DMXTransmit();
+        }
         return theOne;
     }
     
@@ -38,8 +46,7 @@ public class DMXTransmit extends Thread
      * Sets a logical channel level directly. Used only in live
      * edit mode.
      * 
-     * @param     lch   The logical channel number (1..16, the
-     *                  channel strip number)
+     * @param     lch   The logical channel number (1..CHANNELS)
      * @param     v     The value to set (0..1)
      */
     public synchronized static void setLCH(int lch, float v)
@@ -55,6 +62,18 @@ public class DMXTransmit extends Thread
         accumulator[lch] = v;
     }
 
+    /**
+     * Delivers the actual level of a logical channel.
+     * 
+     * @param     lch   The logical channel number (1..CHANNELS)
+     * @return          The level (0..1)
+     */
+    public synchronized static float getLCH(int lch)
+    {
+        if ((accumulator == null) || (lch < 1) || (lch > TheApp.CHANNELS)) return 0.0f;
+        return accumulator[lch-1];
+    }
+
     /**
      * Sets an Artnet / DMX value directly. Used for the control
      * of the MP3 player which bypasses the normal channel fader logic.
@@ -72,30 +91,100 @@ public class DMXTransmit extends Thread
         // set the value
         dmxdata[pch] = (byte) v;
     }
+
+    /**
+     * Sends a sequence of Artnet / DMX values, e.g. the handshake
+     * starting a song on the Radig MP3 player. Every row is
+     * { pch, value, frames }: the value is set in the frame of the
+     * row and sent in at least 'frames' frames before the next row
+     * gets applied. Rows with 0 frames are applied in the same frame
+     * as the following row.
+     *
+     * The sequence is executed by the DMX thread, the caller does not
+     * wait. A new sequence replaces the rows of an older sequence not
+     * yet applied, the row being held is held for its full time.
+     * 
+     * @param     rows   The rows { pch (1..512), value (0..255), frames }
+     */
+    public synchronized static void sequence(int rows[][])
+    {
+        sequenceRows = rows;
+        sequenceNext = 0;
+    }
+
+    /**
+     * Applies the next rows of the sequence when the row applied
+     * last has been held for its frames. Called once per frame,
+     * before the frame is sent.
+     */
+    private synchronized static void advanceSequence()
+    {
+        if (held > 0) held--;
+        if (held > 0) return;
+        while ((sequenceRows != null) && (sequenceNext < sequenceRows.length)) {
+            int r[] = sequenceRows[sequenceNext++];
+            setPCH(r[0], r[1]);
+            held = r[2];
+            if (held > 0) return;
+        }
+        sequenceRows = null;
+    }
     
     /**
      * Updates the fader positions in the UI to make the fade in/out of
      * scenes visible for the operator.
+     *
+     * The levels are published as a snapshot, the faders are updated on
+     * the event dispatch thread only if a level has changed. There is
+     * never more than one update pending on the event dispatch thread,
+     * if the UI is too slow to follow, intermediate frames are skipped
+     * and the next update shows the latest snapshot.
      */
     private void updateUI()
     {
-        // do not update faders if in edit or live mode
-        if (TheApp.edit) return;
-        if (TheApp.live) return;
+        // there are no faders in headless mode
+        if (TheApp.mainPanel == null) return;
+        // do not update faders if in edit or live mode, but show the
+        // levels again when leaving these modes
+        if (TheApp.edit || TheApp.live) {
+            uiStale = true;
+            return;
+        }
 
-        // do the update MT safe
-        SwingUtilities.invokeLater(
-            new Runnable() {
-                public void run() {
-                    for (int i=1; i<=TheApp.CHANNELS; i++) {
-                        ChannelStrip.getChannelFader(i).setValue(accumulator[i-1]);
-                    }
-                    TheApp.mainPanel.repaint();
+        // publish the levels if changed
+        boolean changed = uiStale;
+        uiStale = false;
+        synchronized (snapshot) {
+            for (int ch = 0; ch < TheApp.CHANNELS; ch++) {
+                if (snapshot[ch] != accumulator[ch]) {
+                    snapshot[ch] = accumulator[ch];
+                    changed = true;
                 }
             }
-        );
+        }
+        if (!changed) return;
+
+        // do the update MT safe, unless an update is pending anyway
+        if (uiPending.compareAndSet(false, true)) SwingUtilities.invokeLater(uiUpdater);
     }
 
+    /**
+     * Shows the latest level snapshot on the faders. Runs on the
+     * event dispatch thread.
+     */
+    private static final Runnable uiUpdater = new Runnable() {
+        public void run() {
+            // clear the flag first, a snapshot published from now on
+            // needs another update
+            uiPending.set(false);
+            synchronized (snapshot) {
+                System.arraycopy(snapshot, 0, shown, 0, shown.length);
+            }
+            if (TheApp.edit || TheApp.live) return;
+            ChannelStrip.showLevels(shown);
+        }
+    };
+
     /**
      * Accumulates the actual levels from all scenes. Makes 'accumulator' 
      * contain the max value for every channel found in any of the scenes.
@@ -111,13 +200,40 @@ public class DMXTransmit extends Thread
         for (int sc = 1; sc <= TheApp.SCENES; sc++) {
             Scene scene = Scene.getScene(sc);
             if (!scene.mustAccumulate()) continue;
-            float sv[] = scene.getActualValues();
             // in every scene, if a channel value is higher than the accumulated
             // value, replace it.
-            for (int ch = 0; ch < TheApp.CHANNELS; ch++) {
-                if (sv[ch] > accumulator[ch]) accumulator[ch] = sv[ch];
-            }
+            scene.accumulateInto(accumulator);
+        }
+    }
+
+    /**
+     * Sets the scene which is blind edited. While a scene is blind
+     * edited, the preview of the output with this scene added is sent
+     * to the preview universe.
+     * 
+     * @param     s   The shadow copy of the scene, null to end the preview
+     */
+    public static void setPreview(Scene s) {
+        preview = s;
+    }
+
+    /**
+     * Sends the preview frame to the preview universe. The preview
+     * is the live output with the blind edited scene added.
+     * 
+     * @param     artnet   The Artnet client to send with
+     */
+    private void sendPreview(ArtNetClient artnet) {
+        Scene p = preview;
+        if ((p == null) || (Config.previewUniverse < 0)) return;
+        System.arraycopy(accumulator, 0, previewLevels, 0, previewLevels.length);
+        p.mergeInto(previewLevels);
+        // other channels (e.g. the audio control) like in the live output
+        System.arraycopy(dmxdata, 0, previewData, 0, SIZE);
+        for (int ch = 0; ch < TheApp.CHANNELS; ch++) {
+            previewData[Config.dmxPatch[ch]-1] = translateLevel(previewLevels[ch]);
         }
+        artnet.broadcastDmx(0, Config.previewUniverse, previewData);
     }
 
     /**
@@ -142,13 +258,20 @@ public class DMXTransmit extends Thread
      */
     public void run()
     {
-        // create and start the Artnet client on startup
-        ArtNetClient artnet = new ArtNetClient();
-        artnet.start();
+        // create and start the Artnet client on startup, none in a dry run
+        ArtNetClient artnet = null;
+        if (!TheApp.dryRun) {
+            artnet = new ArtNetClient();
+            artnet.start();
+        }
 
         // the endless loop
+        boolean first = true;
         for (;;) {
             // accumulate all scenes
+            long frameStart = System.nanoTime();
+            AudioEngine.tick();
+            advanceSequence();
             accumulate();
             for (int ch = 0; ch < TheApp.CHANNELS; ch++) {
                 // do channel patching
@@ -157,7 +280,15 @@ public class DMXTransmit extends Thread
                 dmxdata[pch] = translateLevel(accumulator[ch]);
             }
             // send the artnet frame
-            artnet.broadcastDmx(0, 0, dmxdata);
+            if (artnet != null) {
+                artnet.broadcastDmx(0, 0, dmxdata);
+                Latency.frameSent(frameStart);
+                sendPreview(artnet);
+            }
+            if (first) {
+                Startup.mark(Startup.DMX);
+                first = false;
+            }
             // update the (gray) faders in the the UI
             updateUI();
             // 28msecs sleep for about 30 Artnet messages per second.
@@ -171,8 +302,38 @@ public class DMXTransmit extends Thread
     /** the DMX data buffer */
     private static byte dmxdata[] = new byte[SIZE];
 
+    /** the sequence of values executed by the DMX thread, null if none */
+    private static int sequenceRows[][] = null;
+
+    /** the next row of the sequence to apply */
+    private static int sequenceNext = 0;
+
+    /** the number of frames the row applied last is still to be sent */
+    private static int held = 0;
+
     /** accumulates the actual levels from all scenes */
-    private static float accumulator[] = new float[TheApp.CHANNELS];
+    private static float accumulator[];
+
+    /** the DMX data buffer of the preview universe */
+    private static byte previewData[] = new byte[SIZE];
+
+    /** the preview levels: the live levels with the blind edited scene added */
+    private static float previewLevels[];
+
+    /** the shadow copy of the blind edited scene, null if none */
+    private static volatile Scene preview = null;
+
+    /** the levels published for the UI */
+    private static float snapshot[];
+
+    /** the levels shown on the faders, used by the event dispatch thread only */
+    private static float shown[];
+
+    /** true = an update of the faders is pending on the event dispatch thread */
+    private static final AtomicBoolean uiPending = new AtomicBoolean(false);
+
+    /** true = the faders must be updated even if no level has changed */
+    private static boolean uiStale = true;
 
     /** the one and only instance of DMXTransmit */
     private static DMXTransmit theOne = null;
@@ -0,0 +1,20 @@
+package tconsole;
+
+
+/**
+ * The EngineListener interface is used by the LightingEngine to
+ * tell observers (e.g. the UI) that the state of a scene has changed.
+ * 
+ */
+public interface EngineListener {
+
+    /**
+     * Tells that a scene has been faded in or out. Called in the
+     * thread which commanded the change, observers updating the UI
+     * must do this MT safe.
+     * 
+     * @param     scene   The scene number (1..16)
+     */
+    public void sceneChanged(int scene);
+
+}
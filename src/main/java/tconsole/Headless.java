@@ -0,0 +1,449 @@
+package tconsole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.swing.SwingUtilities;
+
+/**
+ * Headless runs the application without any UI. The DMX engine, the
+ * scenes, the cue list and the audio player are started as usual, but
+ * no window, look and feel or font is loaded. This allows to run the
+ * application on machines without display.
+ *
+ * The application is controlled by text commands, one per line, read
+ * from stdin and optionally from a TCP port on the local host (Config
+ * parameter 'control.port'). Every command is answered with one line
+ * starting with 'OK' or 'ERR'. The commands are:
+ *
+ *   GO                             executes the upcoming cue
+ *   NEXT, PREV                     moves in the cue list
+ *   JUMP &lt;number|marker|title&gt;     jumps to a cue
+ *   SCENE &lt;n&gt; UP|DOWN [secs]        fades a scene in or out
+ *   BLACK                          switches all scenes black
+ *   PLAY &lt;n|name&gt;, STOP          controls the audio player
+ *   VOLUME &lt;n&gt; [secs]              sets or fades the audio volume
+ *   XFADE &lt;n|name&gt; &lt;secs&gt;          crossfades to another song
+ *                                  (the audio commands may end with
+ *                                  VOICE &lt;n&gt; for another voice)
+ *   BENCH &lt;n&gt; [voices] [secs]      measures the CPU time for mixing
+ *                                  (max. 120 secs, not while a cue runs)
+ *   MIXER                          shows the CPU time spent mixing
+ *   ANALYZE [&lt;n&gt; [secs]]           shows the audio modulation sources,
+ *                                  or measures the analysis of a song
+ *                                  (max. 120 secs, not while a cue runs)
+ *   RENDER [frames]                measures the time for painting the
+ *                                  widgets with and without render cache
+ *   SONGS                          lists the songs of the library
+ *   STATUS, LATENCY, CACHE, HELP   shows information
+ *   QUIT                           ends the application (stdin) or
+ *                                  closes the connection (socket)
+ */
+public class Headless implements ShowListener, ExecutionListener {
+
+    /**
+     * Private default constructor. The one and only Headless
+     * object is created by start().
+     */
+    private Headless() {
+    }
+
+    /**
+     * Starts the application in headless mode. Does not return
+     * until the QUIT command has been read from stdin.
+     */
+    public static void start() {
+        long t0 = System.nanoTime();
+        System.setProperty("java.awt.headless", "true");
+        TheApp.headless = true;
+        TheApp.startOutput();
+        AudioEngine.initialize();
+        Headless h = new Headless();
+        new ShowWatcher(new File("show.txt"), h);
+        if (Config.controlPort > 0) h.listen(Config.controlPort);
+        System.out.println("headless mode started in "+((System.nanoTime()-t0)/1000000)+" msecs");
+        h.console();
+    }
+
+    /**
+     * Reads and executes commands from stdin. Ends the application
+     * on QUIT. If stdin gets closed, the application keeps running and
+     * may still be controlled through the control port.
+     */
+    private void console() {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            for (;;) {
+                String line = in.readLine();
+                if (line == null) break;
+                if (isQuit(line)) System.exit(0);
+                System.out.println(execute(line));
+            }
+        } catch (Exception e) {
+            System.out.println("stdin: "+e);
+        }
+        // keep the application alive, all other threads are daemons
+        synchronized (this) {
+            for (;;) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a background thread accepting control connections on
+     * a TCP port of the local host.
+     *
+     * @param     port   The TCP port
+     */
+    private void listen(int port) {
+        ServerSocket ss;
+        try {
+            ss = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+        } catch (Exception e) {
+            System.out.println("cannot open control port "+port+": "+e);
+            return;
+        }
+        Thread t = new Thread(
+            new Runnable() {
+                public void run() {
+                    for (;;) {
+                        try {
+                            serve(ss.accept());
+                        } catch (Exception e) {
+                            System.out.println("control port: "+e);
+                        }
+                    }
+                }
+            }, "ControlPort");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Serves a control connection in a background thread.
+     *
+     * @param     s   The socket of the connection
+     */
+    private void serve(Socket s) {
+        Thread t = new Thread(
+            new Runnable() {
+                public void run() {
+                    try (Socket so = s;
+                         BufferedReader in = new BufferedReader(new InputStreamReader(so.getInputStream()));
+                         PrintWriter out = new PrintWriter(so.getOutputStream(), true)) {
+                        for (;;) {
+                            String line = in.readLine();
+                            if ((line == null) || isQuit(line)) break;
+                            out.println(execute(line));
+                        }
+                    } catch (Exception e) {
+                        // connection lost
+                    }
+                }
+            }, "ControlConnection");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Checks for the QUIT command
+     *
+     * @param     line   The command line
+     * @return           true if the line contains the QUIT command
+     */
+    private static boolean isQuit(String line) {
+        return "QUIT".equals(line.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Executes a command. The benchmarks run for seconds, they are
+     * executed outside the lock of the other commands.
+     *
+     * @param     line   The command line
+     * @return           The answer, starting with 'OK' or 'ERR'
+     */
+    public String execute(String line) {
+        String t[] = line.trim().split("\\s+");
+        String cmd = t[0].toUpperCase(Locale.ROOT);
+        if ("BENCH".equals(cmd) || "RENDER".equals(cmd) || ("ANALYZE".equals(cmd) && (t.length > 1))) return benchmark(t);
+        return command(t, line);
+    }
+
+    /**
+     * Executes a command other than a benchmark
+     *
+     * @param     t      The tokens of the command
+     * @param     line   The command line
+     * @return           The answer, starting with 'OK' or 'ERR'
+     */
+    private synchronized String command(String t[], String line) {
+        String cmd = t[0].toUpperCase(Locale.ROOT);
+        try {
+            switch (cmd) {
+            case "":
+                return "OK";
+            case "GO":
+                if (cueList == null) return "ERR show not loaded";
+                if (executing) return "ERR cue is running";
+                Cue c = cueList.getUpcoming();
+                if (c == null) return "ERR no cue";
+                Latency.go();
+                executing = true;
+                c.execute(this);
+                return "OK executing "+describe(c);
+            case "NEXT":
+                if (cueList == null) return "ERR show not loaded";
+                cueList.next();
+                return "OK next "+describe(cueList.getUpcoming());
+            case "PREV":
+                if (cueList == null) return "ERR show not loaded";
+                cueList.prev();
+                return "OK next "+describe(cueList.getUpcoming());
+            case "JUMP":
+                if (cueList == null) return "ERR show not loaded";
+                int i = cueList.find(line.trim().substring(4));
+                if (i < 0) return "ERR cue not found";
+                if (executing) {
+                    // jump when the cue has finished and advanced the cue pointer
+                    pendingJump = i;
+                    return "OK after the cue "+describe(cueList.getCue(i));
+                }
+                cueList.setUpcoming(i);
+                return "OK next "+describe(cueList.getUpcoming());
+            case "SCENE":
+                int sc = Integer.parseInt(t[1]);
+                if ((sc < 1) || (sc > TheApp.SCENES)) return "ERR invalid scene number";
+                String dir = t[2].toUpperCase(Locale.ROOT);
+                boolean up = "UP".equals(dir);
+                if (!up && !"DOWN".equals(dir)) return "ERR UP or DOWN expected";
+                int fade = up ? TheApp.fadeIn : TheApp.fadeOut;
+                if (t.length > 3) fade = Cue.parseNumber(t[3]);
+                if (fade < 0) return "ERR invalid fade time";
+                if (up) LightingEngine.fadeIn(sc, fade);
+                else LightingEngine.fadeOut(sc, fade);
+                return "OK";
+            case "BLACK":
+                LightingEngine.black();
+                return "OK";
+            case "PLAY":
+                int ps = song(t, params(t));
+                if (ps < 0) return "ERR unknown song";
+                AudioEngine.play(voice(t), ps);
+                return "OK";
+            case "STOP":
+                AudioEngine.stop(voice(t));
+                return "OK";
+            case "VOLUME":
+                int voice = voice(t);
+                int v = Integer.parseInt(t[1]);
+                if ((v < 0) || (v > 100)) return "ERR volume must be 0..100";
+                int vt = (params(t) > 2) ? Cue.parseNumber(t[2]) : 0;
+                if (vt < 0) return "ERR invalid fade time";
+                AudioEngine.fadeVolume(voice, v, vt);
+                return "OK";
+            case "XFADE":
+                int xt = Cue.parseNumber(t[params(t)-1]);
+                if (xt < 0) return "ERR invalid fade time";
+                int xs = song(t, params(t)-1);
+                if (xs < 0) return "ERR unknown song";
+                AudioEngine.crossfade(voice(t), xs, xt);
+                return "OK";
+            case "MIXER":
+                return "OK "+InternalPlayer.summary();
+            case "ANALYZE":
+                return "OK "+AudioAnalyzer.summary();
+            case "SONGS":
+                return "OK "+SongLibrary.summary();
+            case "STATUS":
+                return "OK "+status();
+            case "LATENCY":
+                return "OK GO "+Latency.summary()+", audio "+Latency.audioSummary()
+                    +", AT "+AudioScheduler.summary();
+            case "CACHE":
+                return "OK "+PcmCache.summary()+", render cache "+RenderCache.summary();
+            case "HELP":
+                return "OK commands: GO NEXT PREV JUMP SCENE BLACK PLAY STOP VOLUME XFADE BENCH MIXER ANALYZE RENDER SONGS STATUS LATENCY CACHE QUIT";
+            default:
+                return "ERR unknown command "+cmd;
+            }
+        } catch (Exception e) {
+            return "ERR missing or invalid parameter";
+        }
+    }
+
+    /**
+     * Executes a benchmark command. Only one benchmark runs at a time
+     * and none while a cue is running. The benchmark runs with low
+     * priority, the DMX and audio threads keep running in time, and
+     * commands of other connections are not blocked.
+     *
+     * @param     t   The tokens of the command
+     * @return        The answer, starting with 'OK' or 'ERR'
+     */
+    private String benchmark(String t[]) {
+        synchronized (this) {
+            if (executing) return "ERR cue is running";
+            if (benchmarking) return "ERR benchmark is running";
+            benchmarking = true;
+        }
+        Thread th = Thread.currentThread();
+        int priority = th.getPriority();
+        th.setPriority(Thread.MIN_PRIORITY);
+        try {
+            if ("RENDER".equals(t[0].toUpperCase(Locale.ROOT))) {
+                int rf = (t.length > 1) ? Integer.parseInt(t[1]) : 1000;
+                if ((rf < 1) || (rf > MAX_RENDER_FRAMES)) return "ERR invalid parameter";
+                String r[] = new String[1];
+                // the widgets are painted on the event dispatch thread
+                SwingUtilities.invokeAndWait(
+                    new Runnable() {
+                        public void run() {
+                            r[0] = RenderCache.benchmark(rf);
+                        }
+                    }
+                );
+                return "OK "+r[0];
+            }
+            if ("ANALYZE".equals(t[0].toUpperCase(Locale.ROOT))) {
+                int as = (t.length > 2) ? Integer.parseInt(t[2]) : 30;
+                if ((as < 1) || (as > MAX_BENCH_SECS)) return "ERR invalid parameter";
+                return "OK "+AudioAnalyzer.benchmark(Integer.parseInt(t[1]), as);
+            }
+            int bv = (t.length > 2) ? Integer.parseInt(t[2]) : 1;
+            int bs = (t.length > 3) ? Integer.parseInt(t[3]) : 30;
+            if ((bv < 1) || (bv > 64) || (bs < 1) || (bs > MAX_BENCH_SECS)) return "ERR invalid parameter";
+            return "OK "+AudioMixer.benchmark(Integer.parseInt(t[1]), bv, bs);
+        } catch (Exception e) {
+            return "ERR missing or invalid parameter";
+        } finally {
+            th.setPriority(priority);
+            synchronized (this) {
+                benchmarking = false;
+            }
+        }
+    }
+
+    /**
+     * Delivers the voice of an audio command ending with 'VOICE n'
+     *
+     * @param     t   The tokens of the command
+     * @return        The voice, 1 without VOICE clause
+     */
+    private static int voice(String t[]) {
+        if (params(t) == t.length) return 1;
+        return Integer.parseInt(t[t.length-1]);
+    }
+
+    /**
+     * Delivers the song of an audio command, given by number or by
+     * name. The name may contain blanks.
+     *
+     * @param     t     The tokens of the command
+     * @param     end   The index of the first token after the song
+     * @return          The song number, -1 if not found
+     */
+    private static int song(String t[], int end) {
+        if (end < 2) return -1;
+        return SongLibrary.find(String.join(" ", Arrays.copyOfRange(t, 1, end)));
+    }
+
+    /**
+     * Delivers the number of tokens of a command without the VOICE clause
+     *
+     * @param     t   The tokens of the command
+     * @return        The number of tokens
+     */
+    private static int params(String t[]) {
+        int n = t.length;
+        if ((n >= 3) && "VOICE".equals(t[n-2].toUpperCase(Locale.ROOT))) return n-2;
+        return n;
+    }
+
+    /**
+     * Delivers the actual state of the application as a string
+     *
+     * @return    The state
+     */
+    private String status() {
+        StringBuffer b = new StringBuffer();
+        b.append(executing ? "executing, " : "");
+        b.append("next ");
+        b.append((cueList != null) ? describe(cueList.getUpcoming()) : "-");
+        b.append(", scenes");
+        for (int sc = 1; sc <= TheApp.SCENES; sc++) {
+            if (LightingEngine.isShowing(sc)) b.append(" "+sc);
+        }
+        Song song = SongLibrary.get(AudioEngine.getSong());
+        b.append(", song "+((song != null) ? song.toString() : AudioEngine.getSong()));
+        b.append(", volume "+AudioEngine.getVolume());
+        if (AudioEngine.isPlaying()) b.append(", playing at "+AudioEngine.getPosition()+" msecs");
+        return b.toString();
+    }
+
+    /**
+     * Describes a cue by its number and title
+     *
+     * @param     c   The cue
+     * @return        The description
+     */
+    private static String describe(Cue c) {
+        if (c == null) return "-";
+        return c.getNumberText()+" "+c.getTitle();
+    }
+
+    /**
+     * The callback method invoked by the ShowWatcher when the 'show.txt'
+     * file has been (re-)loaded. Replaces the actual CueList by the new one,
+     * keeps the position in the show.
+     *
+     * @param     cl   The new CueList
+     */
+    public synchronized void showLoaded(CueList cl) {
+        if (cueList != null) cl.keepPosition(cueList);
+        cueList = cl;
+        // the index of a jump refers to the old cues
+        pendingJump = -1;
+        System.out.println("show loaded, next "+describe(cueList.getUpcoming()));
+    }
+
+    /**
+     * The callback method invoked after executing a cue. Advances
+     * the cue pointer.
+     */
+    public synchronized void executionFinished() {
+        executing = false;
+        cueList.next();
+        if (pendingJump >= 0) cueList.setUpcoming(pendingJump);
+        pendingJump = -1;
+        System.out.println("cue finished, next "+describe(cueList.getUpcoming()));
+    }
+
+    /** the max. time of audio a benchmark may process (secs) */
+    private static final int MAX_BENCH_SECS = 120;
+
+    /** the max. number of frames painted by RENDER */
+    private static final int MAX_RENDER_FRAMES = 10000;
+
+    /** The CueList, null while loading */
+    private CueList cueList = null;
+
+    /** the index of the cue to jump to when the running cue has finished (-1 = none) */
+    private int pendingJump = -1;
+
+    /** true = a cue is being executed */
+    private boolean executing = false;
+
+    /** true = a benchmark is running */
+    private boolean benchmarking = false;
+
+}
@@ -0,0 +1,399 @@
+package tconsole;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * InternalPlayer plays the MP3 songs inside the application, the
+ * songs are decoded with JLayer and written to a Java Sound
+ * SourceDataLine. Used with audio.mode=INTERNAL.
+ *
+ * Unlike mplayer, there is no external process and no command pipe.
+ * The audio line stays open between songs, starting a song drops the
+ * audio still buffered from the previous song and starts with the first
+ * sample of the new one. The volume is applied to the samples, it is
+ * effective for the very first sample of a song.
+ *
+ * Several songs may play at the same time on the voices (tracks) of
+ * the AudioMixer, Config parameter 'audio.voices'. Voice 1 is the voice
+ * of the UI and of the cue steps without a VOICE clause. While other
+ * voices are playing, starting a song does not drop the buffered audio.
+ *
+ * Volume fades ramp the gain sample by sample. A crossfade keeps the
+ * old song playing while it fades out, the new song fades in at the
+ * same time.
+ *
+ * The MP3 files of the songs are found by the SongLibrary, like with
+ * mplayer. Songs decoded in advance by the
+ * PcmCache are played from there, other songs are decoded while
+ * playing.
+ */
+public class InternalPlayer implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * an InternalPlayer is a call to InternalPlayer.initialize()
+     */
+    private InternalPlayer() {
+        int n = Config.audioVoices + 1;
+        next = new int[n];
+        nextFade = new int[n];
+        requests = new int[n];
+        handled = new int[n];
+        volumeTarget = new float[n];
+        volumeMsecs = new int[n];
+        volumeRequests = new int[n];
+        volumeHandled = new int[n];
+        Thread t = new Thread(this, "InternalPlayer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Creates and starts the one and only InternalPlayer.
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new InternalPlayer();
+    }
+
+    /**
+     * Starts playing a song. If another song is already playing
+     * on the voice, it gets stopped.
+     *
+     * @param     voice   The voice (1..Config.audioVoices)
+     * @param     song    The song number in the SongLibrary, 0 = stop
+     */
+    public static void play(int voice, int song) {
+        crossfade(voice, song, 0);
+    }
+
+    /**
+     * Starts playing a song with a crossfade from the song actually
+     * playing on the voice. Without a song playing, the new song is cut in.
+     *
+     * @param     voice   The voice (1..Config.audioVoices)
+     * @param     song    The song number in the SongLibrary, 0 = stop
+     * @param     msecs   The crossfade time (msecs), 0 = cut
+     */
+    public static void crossfade(int voice, int song, int msecs) {
+        if ((theOne == null) || !isVoice(voice)) return;
+        synchronized (theOne) {
+            theOne.next[voice] = song;
+            theOne.nextFade[voice] = msecs;
+            theOne.requests[voice]++;
+            theOne.request++;
+            theOne.notify();
+        }
+    }
+
+    /**
+     * Stops playing
+     *
+     * @param     voice   The voice (1..Config.audioVoices)
+     */
+    public static void stop(int voice) {
+        play(voice, 0);
+    }
+
+    /**
+     * Sets the playback volume
+     *
+     * @param     voice     The voice (1..Config.audioVoices)
+     * @param     percent   The volume, 0..100
+     */
+    public static void volume(int voice, int percent) {
+        fade(voice, percent, 0);
+    }
+
+    /**
+     * Fades the playback volume. The gain is ramped sample by sample.
+     *
+     * @param     voice     The voice (1..Config.audioVoices)
+     * @param     percent   The volume at the end of the fade, 0..100
+     * @param     msecs     The fade time (msecs), 0 = immediately
+     */
+    public static void fade(int voice, int percent, int msecs) {
+        if (percent < 0) percent = 0;
+        if (percent > 100) percent = 100;
+        if ((theOne == null) || !isVoice(voice)) return;
+        synchronized (theOne) {
+            theOne.volumeTarget[voice] = percent * 0.01f;
+            theOne.volumeMsecs[voice] = msecs;
+            theOne.volumeRequests[voice]++;
+            theOne.request++;
+            theOne.notify();
+        }
+    }
+
+    /**
+     * Checks a voice number
+     *
+     * @param     voice   The voice
+     * @return            true if the voice exists
+     */
+    public static boolean isVoice(int voice) {
+        return (voice >= 1) && (voice <= Config.audioVoices);
+    }
+
+    /**
+     * Checks if a song is playing on voice 1
+     *
+     * @return    true if a song is playing
+     */
+    public static boolean isPlaying() {
+        return (theOne != null) && theOne.playing;
+    }
+
+    /**
+     * Delivers the playback position on voice 1, this is the audio
+     * actually played by the audio line.
+     *
+     * @return    The position in the actual song (msecs)
+     */
+    public static long getPosition() {
+        if ((theOne == null) || !theOne.playing) return 0;
+        SourceDataLine l = theOne.line;
+        AudioMixer m = theOne.mixer;
+        if ((l == null) || (m == null)) return 0;
+        long frames = l.getLongFramePosition() - theOne.startFrame;
+        return (frames > 0) ? (frames * 1000) / m.rate : 0;
+    }
+
+    /**
+     * Delivers a one line summary of the CPU time spent for mixing,
+     * including the decoding of songs not cached.
+     *
+     * @return    The summary
+     */
+    public static String summary() {
+        if ((theOne == null) || (theOne.voiceBlocks == 0)) return "no values";
+        InternalPlayer p = theOne;
+        return p.voiceBlocks+" voice blocks, "+(p.mixNanos / p.voiceBlocks / 1000)+" usecs per voice and block";
+    }
+
+    /**
+     * The background thread. Waits for songs to play, mixes the
+     * voices playing.
+     */
+    public void run() {
+        for (;;) {
+            synchronized (this) {
+                while ((request == taken) && ((mixer == null) || (mixer.getVoices() == 0))) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                taken = request;
+            }
+            for (int v = 1; v < requests.length; v++) takeRequests(v);
+            if (mixer != null) mix();
+            playing = (mixer != null) && (mixer.getCurrent(1) != null);
+        }
+    }
+
+    /**
+     * Executes the requests for a voice
+     *
+     * @param     v   The voice
+     */
+    private void takeRequests(int v) {
+        int song = -1;
+        int msecs = 0;
+        float target = -1.0f;
+        int fade = 0;
+        synchronized (this) {
+            if (requests[v] != handled[v]) {
+                handled[v] = requests[v];
+                song = next[v];
+                msecs = nextFade[v];
+            }
+            if (volumeRequests[v] != volumeHandled[v]) {
+                volumeHandled[v] = volumeRequests[v];
+                target = volumeTarget[v];
+                fade = volumeMsecs[v];
+            }
+        }
+        if (song >= 0) start(v, song, msecs);
+        if ((target >= 0.0f) && (mixer != null)) mixer.fade(v, target, frames(fade, mixer.rate));
+    }
+
+    /**
+     * Starts a song on a voice, with or without a crossfade from the
+     * actual song
+     *
+     * @param     v       The voice
+     * @param     song    The song number, 0 = stop
+     * @param     msecs   The crossfade time (msecs), 0 = cut
+     */
+    private void start(int v, int song, int msecs) {
+        Voice s = null;
+        if (song > 0) {
+            try {
+                s = new Voice(song);
+            } catch (Exception e) {
+                System.out.println("cannot play song "+song+": "+e);
+            }
+        }
+        if ((mixer != null) && (s != null) && !mixer.accepts(s)) {
+            if (mixer.getVoices() > ((mixer.getCurrent(v) != null) ? 1 : 0)) {
+                System.out.println("cannot play song "+song+", the sample format differs from the songs playing");
+                s.close();
+                return;
+            }
+            // nothing else plays, a new mixer for the new format
+            mixer.clear();
+        }
+        boolean cut = (s == null) || (msecs <= 0) || (mixer == null) || (mixer.getCurrent(v) == null);
+        if ((mixer != null) && cut) {
+            mixer.start(v, null, 0);
+            // drop the buffered audio, unless other voices are playing
+            if ((line != null) && (mixer.getVoices() == 0)) {
+                line.flush();
+                written = line.getLongFramePosition();
+            }
+        }
+        if (s == null) return;
+        try {
+            openLine(s.rate, s.channels);
+        } catch (Exception e) {
+            System.out.println("cannot play song "+song+": "+e);
+            s.close();
+            return;
+        }
+        mixer.start(v, s, cut ? 0 : frames(msecs, s.rate));
+        if (v == 1) {
+            startFrame = written;
+            first = true;
+        }
+    }
+
+    /**
+     * Converts a time to a number of frames
+     *
+     * @param     msecs   The time (msecs)
+     * @param     rate    The sample rate (Hz)
+     * @return            The number of frames
+     */
+    private static int frames(int msecs, int rate) {
+        return (int) (((long) msecs * rate) / 1000);
+    }
+
+    /**
+     * Mixes one block of samples from all voices and writes it to the
+     * audio line. Blocks while the line buffer is full.
+     */
+    private void mix() {
+        int voices = mixer.getVoices();
+        long t0 = System.nanoTime();
+        int n = mixer.mix(bytes);
+        mixNanos += System.nanoTime() - t0;
+        voiceBlocks += voices;
+        if (n == 0) return;
+        line.write(bytes, 0, n);
+        written += n / (2 * mixer.channels);
+        AudioAnalyzer.feed(mixer.getDry(), n / 2, mixer.channels, mixer.rate, written - line.getLongFramePosition());
+        if (first) {
+            Latency.audioStarted();
+            first = false;
+        }
+    }
+
+    /**
+     * Opens the audio line for a sample format. The line is kept open
+     * and reused as long as the format does not change. Creates the
+     * AudioMixer for the format, with the volumes set before.
+     *
+     * @param     rate       The sample rate (Hz)
+     * @param     channels   The number of channels
+     * @throws    Exception if there is no suitable audio line
+     */
+    private void openLine(int rate, int channels) throws Exception {
+        if ((line != null) && (mixer != null) && (rate == mixer.rate) && (channels == mixer.channels)) return;
+        if (line != null) line.close();
+        line = null;
+        mixer = null;
+        AudioFormat fmt = new AudioFormat(rate, 16, channels, true, false);
+        SourceDataLine l = AudioSystem.getSourceDataLine(fmt);
+        l.open(fmt, (rate * channels * 2 * BUFFER_MSECS) / 1000);
+        l.start();
+        line = l;
+        written = 0;
+        AudioMixer m = new AudioMixer(Config.audioVoices, rate, channels);
+        synchronized (this) {
+            for (int v = 1; v < volumeTarget.length; v++) {
+                if (volumeRequests[v] > 0) m.fade(v, volumeTarget[v], 0);
+            }
+        }
+        mixer = m;
+    }
+
+    /** the max. number of channels */
+    private static final int MAX_CHANNELS = 2;
+
+    /** the size of the audio line buffer (msecs) */
+    private static final int BUFFER_MSECS = 100;
+
+    /** the song requested last for each voice, 0 = stop */
+    private int next[];
+
+    /** the crossfade time requested last for each voice (msecs) */
+    private int nextFade[];
+
+    /** incremented with every play/stop request for each voice */
+    private int requests[];
+
+    /** the play/stop request handled last for each voice */
+    private int handled[];
+
+    /** the volume requested last for each voice (0..1) */
+    private float volumeTarget[];
+
+    /** the fade time of the volume requested last for each voice (msecs) */
+    private int volumeMsecs[];
+
+    /** incremented with every volume request for each voice */
+    private int volumeRequests[];
+
+    /** the volume request handled last for each voice */
+    private int volumeHandled[];
+
+    /** incremented with every request */
+    private int request = 0;
+
+    /** the request taken last by the thread */
+    private int taken = 0;
+
+    /** the mixer for the format of the audio line */
+    private volatile AudioMixer mixer = null;
+
+    /** true = the first block of the song on voice 1 has not yet been written */
+    private boolean first = false;
+
+    /** true = a song is playing on voice 1 */
+    private volatile boolean playing = false;
+
+    /** the audio line */
+    private volatile SourceDataLine line = null;
+
+    /** the number of frames written to the audio line */
+    private long written = 0;
+
+    /** the frame position of the audio line at the start of the song on voice 1 */
+    private volatile long startFrame = 0;
+
+    /** the time spent mixing (nsecs) */
+    private long mixNanos = 0;
+
+    /** the number of blocks mixed, times the voices playing */
+    private long voiceBlocks = 0;
+
+    /** the buffer for the samples written to the line */
+    private byte bytes[] = new byte[2 * AudioMixer.BLOCK_FRAMES * MAX_CHANNELS];
+
+    /** the one and only instance of InternalPlayer */
+    private static InternalPlayer theOne = null;
+
+}
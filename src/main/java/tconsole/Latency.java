@@ -0,0 +1,211 @@
+package tconsole;
+
+/**
+ * Latency traces the time from pressing GO in the CueWindow to the
+ * first Artnet frame which carries the change of the lights. The
+ * components on the way (Cue, CueStep, LightingEngine, Scene, DMXTransmit)
+ * mark their stage with a nanosecond time stamp when they are passed.
+ *
+ * When the first frame after a scene fade has been sent, the trace is
+ * complete. The total latency is recorded in a LatencyHistogram and the
+ * time stamps of all stages are logged. Time spent in DELAY steps before
+ * the first scene change is intentional and not counted as latency.
+ *
+ * There is only one trace at a time, pressing GO starts a new trace.
+ *
+ * The time until a song started by a PLAY step is audible is traced
+ * separately. It is measured from GO (without DELAY steps) for songs
+ * started by cues and from the command otherwise, until the audio
+ * player reports the start of playback, and recorded in a second
+ * histogram. This allows to compare the audio players.
+ */
+public class Latency {
+
+    /**
+     * Private default constructor. Latency provides
+     * static methods only.
+     */
+    private Latency() {
+    }
+
+    /**
+     * Starts a new trace. Called when the operator pressed GO.
+     */
+    public static synchronized void go() {
+        for (int i = 0; i < stamps.length; i++) stamps[i] = 0;
+        stamps[GO] = System.nanoTime();
+        delayed = 0;
+        delayedTotal = 0;
+        active = true;
+        inCue = true;
+    }
+
+    /**
+     * Tells that the cue started with GO has been executed completely.
+     */
+    public static synchronized void cueFinished() {
+        inCue = false;
+    }
+
+    /**
+     * Marks a stage of the trace. Only the first time a stage is passed
+     * gets recorded.
+     *
+     * @param     stage   The stage, one of CUE, STEP, ENGINE, SCENE
+     */
+    public static void mark(int stage) {
+        if (!active) return;
+        long t = System.nanoTime();
+        synchronized (Latency.class) {
+            if (active && (stamps[stage] == 0)) stamps[stage] = t;
+        }
+    }
+
+    /**
+     * Adds the time spent in a DELAY step. Delays before the first
+     * scene change are subtracted from the latency.
+     *
+     * @param     nanos   The time spent (nsecs)
+     */
+    public static synchronized void delayed(long nanos) {
+        if (active && (stamps[SCENE] == 0)) delayed += nanos;
+        if (inCue) delayedTotal += nanos;
+    }
+
+    /**
+     * Tells that a song has been requested from the audio player.
+     */
+    public static synchronized void audioRequested() {
+        audioBase = inCue ? stamps[GO] + delayedTotal : System.nanoTime();
+        audioPending = true;
+    }
+
+    /**
+     * Tells that the audio player started the playback of the
+     * song requested last. Records the audio latency.
+     */
+    public static void audioStarted() {
+        long t = System.nanoTime();
+        synchronized (Latency.class) {
+            if (!audioPending) return;
+            audioPending = false;
+            audioHistogram.record(t - audioBase);
+        }
+        System.out.println("audio latency: "+audioHistogram.summary());
+    }
+
+    /**
+     * Delivers a one line summary of the audio latencies recorded so far
+     *
+     * @return    The summary
+     */
+    public static String audioSummary() {
+        return audioHistogram.summary();
+    }
+
+    /**
+     * Tells that a DMX frame has been sent. Called by DMXTransmit in
+     * every cycle. Completes the trace, if the levels of the frame have
+     * been accumulated after the scene change.
+     *
+     * @param     frameStart   The time stamp (nanoTime) when the
+     *                         accumulation of the frame started
+     */
+    public static void frameSent(long frameStart) {
+        if (!active) return;
+        long t = System.nanoTime();
+        synchronized (Latency.class) {
+            if (!active) return;
+            if ((stamps[SCENE] == 0) || (frameStart < stamps[SCENE])) return;
+            stamps[FRAME] = t;
+            active = false;
+            histogram.record(t - stamps[GO] - delayed);
+        }
+        log();
+    }
+
+    /**
+     * Logs the time stamps of the completed trace, relative to GO.
+     */
+    private static synchronized void log() {
+        StringBuffer b = new StringBuffer("latency:");
+        for (int i = CUE; i <= FRAME; i++) {
+            b.append(" ");
+            b.append(NAMES[i]);
+            b.append(" ");
+            if (stamps[i] == 0) b.append("-");
+            else b.append(LatencyHistogram.ms((stamps[i] - stamps[GO]) / 1000));
+        }
+        if (delayed > 0) b.append(" (delays "+LatencyHistogram.ms(delayed/1000)+")");
+        b.append(" ms, ");
+        b.append(histogram.summary());
+        System.out.println(b.toString());
+    }
+
+    /**
+     * Delivers a one line summary of the GO latencies recorded so far
+     *
+     * @return    The summary
+     */
+    public static String summary() {
+        return histogram.summary();
+    }
+
+    /**
+     * Delivers the histogram of the GO latencies recorded so far
+     *
+     * @return    The histogram
+     */
+    public static LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /** Stage: the operator pressed GO */
+    public static final int GO = 0;
+
+    /** Stage: the cue thread started */
+    public static final int CUE = 1;
+
+    /** Stage: the first scene changing step gets executed */
+    public static final int STEP = 2;
+
+    /** Stage: the lighting engine processes the command */
+    public static final int ENGINE = 3;
+
+    /** Stage: the scene starts fading */
+    public static final int SCENE = 4;
+
+    /** Stage: the first DMX frame with the change has been sent */
+    public static final int FRAME = 5;
+
+    /** the stage names used for logging */
+    private static final String NAMES[] = { "go", "cue", "step", "engine", "scene", "frame" };
+
+    /** the time stamps of the actual trace */
+    private static long stamps[] = new long[FRAME+1];
+
+    /** the time spent in DELAY steps before the first scene change */
+    private static long delayed = 0;
+
+    /** the time spent in all DELAY steps of the cue */
+    private static long delayedTotal = 0;
+
+    /** true = the cue started with GO is running */
+    private static boolean inCue = false;
+
+    /** the time stamp the audio latency is measured from */
+    private static long audioBase = 0;
+
+    /** true = a song has been requested but playback not yet started */
+    private static boolean audioPending = false;
+
+    /** the audio latencies recorded */
+    private static LatencyHistogram audioHistogram = new LatencyHistogram();
+
+    /** true = a trace is running */
+    private static volatile boolean active = false;
+
+    /** the GO latencies recorded */
+    private static LatencyHistogram histogram = new LatencyHistogram();
+
+}
@@ -0,0 +1,186 @@
+package tconsole;
+
+/**
+ * A LatencyHistogram records latency values with a fixed relative
+ * precision, similar to a HDR histogram. Values are sorted into
+ * buckets, each power of two range is divided into SUB_BUCKETS linear
+ * sub-buckets. This keeps the relative error below 1/SUB_BUCKETS
+ * over the whole range from 1 usec up to many seconds.
+ *
+ * Recording a value does not allocate any memory. All methods are
+ * synchronized, values may be recorded and read from different threads.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Constructs an empty LatencyHistogram
+     */
+    public LatencyHistogram() {
+        counts = new long[(RANGES+1) * SUB_BUCKETS];
+        reset();
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) counts[i] = 0;
+        count = 0;
+        sum = 0;
+        max = 0;
+        last = 0;
+    }
+
+    /**
+     * Records a latency value
+     *
+     * @param     nanos   The latency (nsecs)
+     */
+    public synchronized void record(long nanos) {
+        long us = nanos / 1000;
+        if (us < 0) us = 0;
+        counts[bucket(us)]++;
+        count++;
+        sum += us;
+        if (us > max) max = us;
+        last = us;
+    }
+
+    /**
+     * Delivers the number of recorded values
+     *
+     * @return    The number of values
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Delivers the last recorded value
+     *
+     * @return    The value (usecs)
+     */
+    public synchronized long getLast() {
+        return last;
+    }
+
+    /**
+     * Delivers the largest recorded value
+     *
+     * @return    The value (usecs)
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Delivers the mean of all recorded values
+     *
+     * @return    The mean value (usecs)
+     */
+    public synchronized long getMean() {
+        return (count > 0) ? sum / count : 0;
+    }
+
+    /**
+     * Delivers a percentile of the recorded values. The value returned
+     * is the upper bound of the bucket containing the percentile.
+     *
+     * @param     p   The percentile (0..100)
+     * @return        The value (usecs)
+     */
+    public synchronized long getPercentile(double p) {
+        if (count == 0) return 0;
+        long n = (long) Math.ceil(count * p / 100.0);
+        if (n < 1) n = 1;
+        long c = 0;
+        for (int i = 0; i < counts.length; i++) {
+            c += counts[i];
+            if (c >= n) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Delivers a one line summary of the recorded values in msecs
+     *
+     * @return    The summary
+     */
+    public synchronized String summary() {
+        if (count == 0) return "no values";
+        return "last "+ms(last)+", p50 "+ms(getPercentile(50))+", p99 "+ms(getPercentile(99))
+            +", max "+ms(max)+" ms (n="+count+")";
+    }
+
+    /**
+     * Formats a usec value as msecs with one decimal
+     *
+     * @param     us   The value (usecs)
+     * @return         The value as a string
+     */
+    public static String ms(long us) {
+        return (us / 1000)+"."+((us % 1000) / 100);
+    }
+
+    /**
+     * Delivers the bucket index for a value
+     *
+     * @param     us   The value (usecs)
+     * @return         The bucket index
+     */
+    private static int bucket(long us) {
+        if (us < SUB_BUCKETS) return (int) us;
+        // the power of two range of the value
+        int r = 63 - Long.numberOfLeadingZeros(us) - SUB_BITS + 1;
+        if (r > RANGES) return lastBucket();
+        int sub = (int) (us >> (r-1)) - SUB_BUCKETS;
+        return r * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Delivers the upper bound of the values in a bucket
+     *
+     * @param     b   The bucket index
+     * @return        The upper bound (usecs)
+     */
+    private static long upperBound(int b) {
+        int r = b / SUB_BUCKETS;
+        int sub = b % SUB_BUCKETS;
+        if (r == 0) return sub;
+        return ((long) (SUB_BUCKETS + sub + 1) << (r-1)) - 1;
+    }
+
+    /**
+     * Delivers the index of the last bucket, collecting all values
+     * beyond the range of the histogram
+     *
+     * @return    The index
+     */
+    private static int lastBucket() {
+        return (RANGES+1) * SUB_BUCKETS - 1;
+    }
+
+    /** bits for the sub-bucket index */
+    private static final int SUB_BITS = 5;
+
+    /** the number of sub-buckets per power of two range */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** the number of power of two ranges (up to about 2^36 usecs) */
+    private static final int RANGES = 32;
+
+    /** the counts per bucket */
+    private long counts[];
+
+    /** the number of recorded values */
+    private long count;
+
+    /** the sum of all recorded values (usecs) */
+    private long sum;
+
+    /** the largest recorded value (usecs) */
+    private long max;
+
+    /** the last recorded value (usecs) */
+    private long last;
+}
@@ -0,0 +1,112 @@
+package tconsole;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The LightingEngine provides the commands to operate the scenes
+ * independent from the UI. Cue steps and the UI call the engine
+ * directly, the commands take effect immediately in the calling thread
+ * and are not routed through the Swing UI thread.
+ *
+ * The UI observes the engine. EngineListener objects get informed about
+ * every change of a scene's state.
+ */
+public class LightingEngine {
+
+    /**
+     * Private default constructor. LightingEngine provides
+     * static methods only.
+     */
+    private LightingEngine() {
+    }
+
+    /**
+     * Fades in a scene.
+     * 
+     * @param     scene      The scene number (1..16)
+     * @param     fadeTime   The fade in time (msecs)
+     */
+    public static void fadeIn(int scene, int fadeTime) {
+        if ((scene < 1) || (scene > TheApp.SCENES)) return;
+        fadeIn(Scene.getScene(scene), fadeTime);
+    }
+
+    /**
+     * Fades in a scene.
+     * 
+     * @param     scene      The scene
+     * @param     fadeTime   The fade in time (msecs)
+     */
+    public static void fadeIn(Scene scene, int fadeTime) {
+        Latency.mark(Latency.ENGINE);
+        scene.fadeIn(fadeTime);
+        fireSceneChanged(scene.getNumber());
+    }
+
+    /**
+     * Fades out a scene.
+     * 
+     * @param     scene      The scene number (1..16)
+     * @param     fadeTime   The fade out time (msecs)
+     */
+    public static void fadeOut(int scene, int fadeTime) {
+        if ((scene < 1) || (scene > TheApp.SCENES)) return;
+        fadeOut(Scene.getScene(scene), fadeTime);
+    }
+
+    /**
+     * Fades out a scene.
+     * 
+     * @param     scene      The scene
+     * @param     fadeTime   The fade out time (msecs)
+     */
+    public static void fadeOut(Scene scene, int fadeTime) {
+        Latency.mark(Latency.ENGINE);
+        scene.fadeOut(fadeTime);
+        fireSceneChanged(scene.getNumber());
+    }
+
+    /**
+     * Immediately switches all scenes black.
+     */
+    public static void black() {
+        Latency.mark(Latency.ENGINE);
+        for (int sc = 1; sc <= TheApp.SCENES; sc++) {
+            Scene.getScene(sc).fadeOut(0);
+            fireSceneChanged(sc);
+        }
+    }
+
+    /**
+     * Checks if a scene is showing or fading in.
+     * 
+     * @param     scene      The scene number (1..16)
+     * @return               true if the scene is showing
+     */
+    public static boolean isShowing(int scene) {
+        if ((scene < 1) || (scene > TheApp.SCENES)) return false;
+        return Scene.getScene(scene).isShowing();
+    }
+
+    /**
+     * Adds an observer of the engine state.
+     * 
+     * @param     l    The listener to add
+     */
+    public static void addListener(EngineListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Informs all listeners about the change of a scene.
+     * 
+     * @param     scene      The scene number (1..16)
+     */
+    private static void fireSceneChanged(int scene) {
+        for (EngineListener l: listeners) l.sceneChanged(scene);
+    }
+
+    /** the observers of the engine state */
+    private static CopyOnWriteArrayList<EngineListener> listeners = new CopyOnWriteArrayList<EngineListener>();
+
+}
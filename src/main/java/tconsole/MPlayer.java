@@ -1,41 +1,58 @@
 package tconsole;
 
-
+import java.io.BufferedWriter;
+import java.util.LinkedList;
+import java.util.Locale;
 
 
 /**
  * MPlayer provides a method for audio playback using the external
- * 'mplayer' program. This program is available for Linux, Mac (homebrew) 
- * and Windows. To make MPlayer work, mplayer must be installed and 
+ * 'mplayer' program. This program is available for Linux, Mac (homebrew)
+ * and Windows. To make MPlayer work, mplayer must be installed and
  * in the serach path.
  *
- * mplayer is operated in 'slave' / 'idle' mode, in this mode it does 
+ * mplayer is operated in 'slave' / 'idle' mode, in this mode it does
  * nothing until it receives commands from stdin. The static play(),
- * stop() and volume() methods of MPlayer send such commands to mplayer
- * to control it.
+ * stop() and volume() methods of MPlayer queue such commands, a
+ * background thread sends them to mplayer in the order queued. The
+ * callers, e.g. the UI thread moving the volume fader, never wait for
+ * the pipe. A volume command directly following another volume command
+ * in the queue replaces it, only the latest volume gets sent.
  *
  * A background thread consumes all output from mplayer, ensuring that
- * the external proces does not get stuck because of a full buffer/pipe
+ * the external proces does not get stuck because of a full buffer/pipe.
+ * While a song is playing, the playback position is polled every
+ * POLL_MSECS, the answers (ANS_time_pos, ANS_volume) give the real
+ * playback state. If mplayer dies, it is restarted, the volume is set
+ * again and a song which was playing is continued at its last position.
  *
  * The Config parameter 'audio.mplayerCLI' may be tweaked to modify the
  * behavior of mplayer, it is also possible to run mplayer on another
  * machine using ssh.
- * 
+ *
  */
 public class MPlayer implements Runnable {
-    
+
     /**
-     * Constructs a MPlayer object, starts the background thread 
+     * Constructs a MPlayer object, starts the background threads
      * communicating with the mplayer process.
-     * 
+     *
      * There is exactly one MPlayer instance in the application
      * it gets created by calling the static MPlayer.initialize()
      * method.
      */
     private MPlayer() {
-        Thread t = new Thread(this);
+        Thread t = new Thread(this, "MPlayer");
         t.setDaemon(true);
         t.start();
+        Thread w = new Thread(
+            new Runnable() {
+                public void run() {
+                    writeCommands();
+                }
+            }, "MPlayerCommands");
+        w.setDaemon(true);
+        w.start();
     }
 
     /**
@@ -47,69 +64,209 @@ public class MPlayer implements Runnable {
     }
 
     /**
-     * Starts playing a song. If another song is already playing, 
+     * Starts playing a song. If another song is already playing,
      * it gets stopped.
-     * 
-     * @param     song  The song number, 1..99
+     *
+     * @param     song  The song number in the SongLibrary
      */
     public static void play(int song) {
-        // the command to send to mplayer
-        String cmd = "loadfile "+String.format("%02d", song)+".mp3";
-        try {
-            // write the command
-            mplayer.process.outputWriter().write(cmd);
-            mplayer.process.outputWriter().newLine();
-            mplayer.process.outputWriter().flush();
+        if (mplayer == null) return;
+        synchronized (mplayer) {
+            mplayer.song = song;
+            // not playing until mplayer has started the new song
+            mplayer.playing = false;
+            mplayer.resume = false;
+            mplayer.position = 0.0f;
+            mplayer.send(loadfile(song));
             // also set the volume to the stored value, otherwise
             // mplayer would start play with 100% volume
-            volume(mplayer.volume);
-        } catch (Exception e) {
-            // something went wrong
-            System.out.println("mplayer error: "+cmd);
+            mplayer.send("volume "+mplayer.volume+" 1");
         }
     }
-    
+
     /**
      * Stops playing
      */
     public static void stop() {
-        // the command to send to mplayer
-        String cmd = "stop";
-        try {
-            // write the command
-            mplayer.process.outputWriter().write(cmd);
-            mplayer.process.outputWriter().newLine();
-            mplayer.process.outputWriter().flush();
-        } catch (Exception e) {
-            // something went wrong
-            System.out.println("mplayer error: "+cmd);
+        if (mplayer == null) return;
+        synchronized (mplayer) {
+            mplayer.playing = false;
+            mplayer.resume = false;
+            mplayer.send("stop");
         }
     }
-    
+
     /**
      * Sets the playback volume
-     * 
+     *
      * @param     percent   The volume, 0..100
      */
     public static void volume(int percent) {
-        // the command to send to mplayer
-        String cmd = "volume "+percent+" 1";
-        try {
+        if (mplayer == null) return;
+        synchronized (mplayer) {
             // remember the volume. it must be set again
             // after a song has been started
             mplayer.volume = percent;
-            // write the command
-            mplayer.process.outputWriter().write(cmd);
-            mplayer.process.outputWriter().newLine();
-            mplayer.process.outputWriter().flush();
-        } catch (Exception e) {
-            // something went wrong
-            System.out.println("mplayer error: "+cmd);
+            mplayer.send("volume "+percent+" 1");
+        }
+    }
+
+    /**
+     * Checks if mplayer is actually playing a song
+     *
+     * @return    true if a song is playing
+     */
+    public static boolean isPlaying() {
+        return (mplayer != null) && mplayer.playing;
+    }
+
+    /**
+     * Delivers the playback position. This is the position reported
+     * last by mplayer, advanced by the time since the report.
+     *
+     * @return    The position in the actual song (secs)
+     */
+    public static float getPosition() {
+        if (mplayer == null) return 0.0f;
+        if (!mplayer.playing) return mplayer.position;
+        synchronized (mplayer) {
+            return mplayer.position + (System.nanoTime() - mplayer.positionTime) * 1e-9f;
+        }
+    }
+
+    /**
+     * Delivers the volume reported last by mplayer
+     *
+     * @return    The volume (0..100), -1 if not yet known
+     */
+    public static int getReportedVolume() {
+        return (mplayer != null) ? mplayer.reportedVolume : -1;
+    }
+
+    /**
+     * Builds the command loading a song. The file name is quoted, it
+     * may contain blanks.
+     *
+     * @param     song   The song number
+     * @return           The command
+     */
+    private static String loadfile(int song) {
+        String f = SongLibrary.getFile(song).getPath();
+        return "loadfile \""+f.replace("\\", "\\\\").replace("\"", "\\\"")+"\"";
+    }
+
+    /**
+     * Queues a command for mplayer. A volume command replaces
+     * a volume command queued directly before. Must be called
+     * while holding the lock of this object.
+     *
+     * @param     cmd   The command
+     */
+    private void send(String cmd) {
+        if (cmd.startsWith("volume ") && !commands.isEmpty() && commands.getLast().startsWith("volume ")) {
+            commands.removeLast();
+        }
+        commands.add(cmd);
+        notify();
+    }
+
+    /**
+     * The background thread sending the queued commands to mplayer.
+     * Waits while mplayer is not running. Polls the playback position
+     * while a song is playing.
+     */
+    private void writeCommands() {
+        for (;;) {
+            String cmd;
+            BufferedWriter out;
+            synchronized (this) {
+                while ((writer == null) || commands.isEmpty()) {
+                    try {
+                        wait(POLL_MSECS);
+                    } catch (InterruptedException e) {
+                    }
+                    if ((writer != null) && playing && commands.isEmpty()) {
+                        commands.add("get_property time_pos");
+                        commands.add("get_property volume");
+                    }
+                }
+                cmd = commands.removeFirst();
+                out = writer;
+            }
+            try {
+                out.write(cmd);
+                out.newLine();
+                out.flush();
+            } catch (Exception e) {
+                // mplayer died, the command gets lost. the state is
+                // restored when mplayer has been restarted
+                System.out.println("mplayer error: "+cmd);
+                synchronized (this) {
+                    if (writer == out) writer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a line of output from mplayer, updates the playback state
+     *
+     * @param     line   The line of output
+     * @return           true if the line is an answer to a poll
+     */
+    private boolean parse(String line) {
+        if (line.startsWith("ANS_time_pos=")) {
+            float p = Float.parseFloat(line.substring(13));
+            synchronized (this) {
+                position = p;
+                positionTime = System.nanoTime();
+            }
+            return true;
+        }
+        if (line.startsWith("ANS_volume=")) {
+            reportedVolume = Math.round(Float.parseFloat(line.substring(11)));
+            return true;
+        }
+        if (line.startsWith("ANS_ERROR=")) {
+            // no file is playing, the song has ended
+            playing = false;
+            return true;
+        }
+        // mplayer has opened the file and started the decoder
+        if (line.startsWith("Starting playback")) {
+            synchronized (this) {
+                // after a restart, the song continues where it stopped
+                position = (resumeAt >= 0.0f) ? resumeAt : 0.0f;
+                resumeAt = -1.0f;
+                positionTime = System.nanoTime();
+            }
+            playing = true;
+            Latency.audioStarted();
+        }
+        return false;
+    }
+
+    /**
+     * Queues the commands restoring the playback state after mplayer
+     * has been restarted. The commands go in front of the commands
+     * queued while mplayer was not running. The song counts as playing
+     * again when mplayer reports the start of the playback.
+     */
+    private synchronized void restore() {
+        LinkedList<String> c = new LinkedList<String>();
+        if (resume) {
+            c.add(loadfile(song));
+            c.add("seek "+String.format(Locale.ROOT, "%.1f", position)+" 2");
+            resumeAt = position;
+            resume = false;
         }
+        c.add("volume "+volume+" 1");
+        commands.addAll(0, c);
+        notify();
     }
 
     /**
-     * The background thread running the mplayer process and 
+     * The background thread running the mplayer process and
      * consuming all stdout output from the process
      */
     public void run() {
@@ -118,10 +275,20 @@ public class MPlayer implements Runnable {
             try {
                 // start mplayer
                 process = Runtime.getRuntime().exec(Config.mplayerCLI.split(" +"));
+                if (started) restore();
+                started = true;
+                synchronized (this) {
+                    writer = process.outputWriter();
+                    notify();
+                }
                 // consume all output from mplayer, log it to the terminal
                 for(;;) {
                     String line = process.inputReader().readLine();
                     if (line == null) break;
+                    try {
+                        if (parse(line)) continue;
+                    } catch (NumberFormatException e) {
+                    }
                     System.out.println(line);
                 }
                 // mplayer ended, nevertheless force process termination
@@ -136,6 +303,16 @@ public class MPlayer implements Runnable {
                     process = null;
                 }
             }
+            synchronized (this) {
+                writer = null;
+                // the position is not advancing while mplayer is down,
+                // the song is continued by restore()
+                if (playing) {
+                    resume = true;
+                    position = getPosition();
+                }
+                playing = false;
+            }
             // wait a second after mplayer terminated to avoid a race
             // condition if mplayer is not installed
             try {
@@ -145,12 +322,45 @@ public class MPlayer implements Runnable {
         }
     }
 
+    /** the interval of position polls while playing (msecs) */
+    private static final int POLL_MSECS = 500;
+
     /** The process unning mplayer */
     private Process process;
 
+    /** The pipe to the running mplayer, null while mplayer is not running */
+    private BufferedWriter writer = null;
+
+    /** The commands not yet sent to mplayer */
+    private LinkedList<String> commands = new LinkedList<String>();
+
+    /** true = mplayer has been started before, it is a restart */
+    private boolean started = false;
+
     /** The volume set with volume(). */
     private int volume = 100;
 
+    /** The song started last */
+    private int song = 0;
+
+    /** true = mplayer is playing a song */
+    private volatile boolean playing = false;
+
+    /** true = a song was playing when mplayer died, it is continued after the restart */
+    private boolean resume = false;
+
+    /** The position the restarted song continues at (secs), -1 = none */
+    private float resumeAt = -1.0f;
+
+    /** The playback position reported last (secs) */
+    private volatile float position = 0.0f;
+
+    /** The time the position was reported (System.nanoTime()) */
+    private long positionTime = 0;
+
+    /** The volume reported last, -1 = unknown */
+    private volatile int reportedVolume = -1;
+
     /** The one and only instance of MPlayer, created with initialize() */
     private static MPlayer mplayer;
 
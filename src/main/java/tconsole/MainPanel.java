@@ -1,17 +1,26 @@
 package tconsole;
 
 import java.awt.Rectangle;
-import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JTextField;
 import javax.swing.JLabel;
+import javax.swing.KeyStroke;
 
 /**
  * The MainPanel contains the channel strips which make up
  * the main window UI. TheApp creates one MainPanel on startup
  * and displays it as its only component
  * 
+ * The number of channel strips is fixed (TheApp.STRIPS). If there
+ * are more channels, the bank buttons or the PAGE UP / PAGE DOWN
+ * keys switch the strips between banks of channels.
+ * 
  */
-public class MainPanel extends TPanel {
+public class MainPanel extends TPanel implements ActionListener, EngineListener {
 
     /**
      * Constructs a MainPanel
@@ -20,18 +29,18 @@ public class MainPanel extends TPanel {
     public MainPanel() {
         
         // we use a fixed position layout, the with calulates
-        // as CHANNELS+1 * 71 pixels
+        // as STRIPS+1 * 71 pixels
         setSize(1207, 680);
 
-        // there are CHANNELS + 1 channel strips, the very last one
+        // there are STRIPS + 1 channel strips, the very last one
         // is the control for the MP3 player
-        for (int i = 0; i <= TheApp.CHANNELS; i++) {
+        for (int i = 0; i <= TheApp.STRIPS; i++) {
             BasicChannelStrip c = null;
             // depending on the column different types of channel
             // strips are created
             switch (i) {
             case 0:  
-                c = new BlackChannelStrip(i+1); 
+                c = blackStrip = new BlackChannelStrip(i+1); 
                 add(c, new Rectangle(i*71, 0, 71, 680));
                 break;
             case 1:  
@@ -50,8 +59,8 @@ public class MainPanel extends TPanel {
                 c = new CuesChannelStrip(i+1); 
                 add(c, new Rectangle(i*71, 0, 71, 680));
                 break;
-            case TheApp.CHANNELS:
-                c = new AudioChannelStrip();
+            case TheApp.STRIPS:
+                c = audioStrip = new AudioChannelStrip();
                 add(c, new Rectangle(i*71, 0, 71, 680));
                 break;
             default: 
@@ -59,8 +68,13 @@ public class MainPanel extends TPanel {
                 add(c, new Rectangle(i*71, 0, 71, 609));
                 break;
             }
+            // register the strips for direct access by column
+            if (c instanceof ChannelStrip) strips[i] = (ChannelStrip) c;
         }
 
+        // the scene buttons show the state of the scenes in the engine
+        LightingEngine.addListener(this);
+
         // sceneName / sceneLabel are shown while a scene is edited
         sceneLabel = new JLabel("Scene Name");
         sceneLabel.setFont(Skin.DIALOG12);
@@ -70,6 +84,83 @@ public class MainPanel extends TPanel {
         sceneName.setFont(Skin.DIALOG14);
         add(sceneName, new Rectangle(380, 640, 90, 24));
         hideSceneName();
+
+        // the BLIND button switches between live and blind editing
+        blindButton = new TButton("BLIND");
+        blindButton.setFont(Skin.BOLD14);
+        blindButton.addActionListener(this);
+        add(blindButton, new Rectangle(923, 609, 70, 70));
+
+        // the bank controls below the last channel strips, shown
+        // only if there are more channels than strips
+        if (ChannelStrip.getBanks() > 1) {
+            prevBank = new TButton("BANK -");
+            prevBank.setFont(Skin.DIALOG12);
+            prevBank.addActionListener(this);
+            add(prevBank, new Rectangle(994, 609, 70, 35));
+            nextBank = new TButton("BANK +");
+            nextBank.setFont(Skin.DIALOG12);
+            nextBank.addActionListener(this);
+            add(nextBank, new Rectangle(994, 645, 70, 34));
+            bankDisplay = new T7Segment("BANK");
+            add(bankDisplay, new Rectangle(1065, 609, 70, 70));
+            showBank();
+            bindKey(KeyEvent.VK_PAGE_UP, -1);
+            bindKey(KeyEvent.VK_PAGE_DOWN, 1);
+        }
+    }
+
+    /**
+     * Binds a key to switch the bank
+     * 
+     * @param     key   The key code
+     * @param     d     The bank increment
+     */
+    private void bindKey(int key, int d) {
+        String name = "bank"+d;
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key, 0), name);
+        getActionMap().put(name,
+            new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    switchBank(d);
+                }
+            }
+        );
+    }
+
+    /**
+     * Called if the operator pressed the BLIND button or one of
+     * the bank buttons
+     * 
+     * @param     e   The ActionEvent to process
+     */
+    public void actionPerformed(ActionEvent e) {
+        if (blindButton == e.getSource()) {
+            // the mode can not change while a scene is edited
+            if (TheApp.edit) return;
+            TheApp.blind = !TheApp.blind;
+            blindButton.setBackground(TheApp.blind ? Skin.BLUE : Skin.OBJECT);
+        } else if (prevBank == e.getSource()) switchBank(-1);
+        else if (nextBank == e.getSource()) switchBank(1);
+    }
+
+    /**
+     * Switches the channel strips to the previous / next bank
+     * 
+     * @param     d   The bank increment (-1 or 1)
+     */
+    private void switchBank(int d) {
+        ChannelStrip.setBank(ChannelStrip.getBank() + d);
+        showBank();
+    }
+
+    /**
+     * Shows the actual bank number
+     */
+    private void showBank() {
+        bankDisplay.setSegments(String.format("%02d", ChannelStrip.getBank()+1));
+        prevBank.setEnabled(ChannelStrip.getBank() > 0);
+        nextBank.setEnabled(ChannelStrip.getBank() < ChannelStrip.getBanks()-1);
     }
 
     /**
@@ -96,51 +187,80 @@ public class MainPanel extends TPanel {
         return name;
     }
 
+    /**
+     * Called by the LightingEngine when a scene has been faded in
+     * or out. Updates the scene button of the scene.
+     * 
+     * @param     sc   The scene number (1..16)
+     */
+    public void sceneChanged(int sc) {
+        ChannelStrip cs = getChannelStrip(sc);
+        if (cs != null) cs.sceneChanged();
+    }
+
     /**
      * Delivers the ChannelStrip with the given column number.
      * 
-     * @param     column   The column number as a String
+     * @param     column   The column number (1..16), equals the scene number
      * @return             The ChannelStrip or null in case of any error
      */
-    public ChannelStrip getChannelStrip(String column) {
-        if (column == null) return null;
-        for (Component c: getComponents()) {
-            if (c instanceof ChannelStrip) {
-                ChannelStrip cs = (ChannelStrip) c;
-                if (column.equals(cs.getColumn())) return cs;
-            }
-        }
-        return null;
+    public ChannelStrip getChannelStrip(int column) {
+        if ((column < 1) || (column > TheApp.STRIPS)) return null;
+        return strips[column-1];
+    }
+
+    /**
+     * Delivers the ChannelStrip showing a channel in the actual bank.
+     * 
+     * @param     channel   The channel (1..CHANNELS)
+     * @return              The ChannelStrip or null if the channel
+     *                      is not in the actual bank
+     */
+    public ChannelStrip getStripForChannel(int channel) {
+        if (channel < 1) return null;
+        ChannelStrip cs = getChannelStrip(channel - ChannelStrip.getBank()*TheApp.STRIPS);
+        return ((cs != null) && (cs.getChannel() == channel)) ? cs : null;
     }
 
     /**
-     * Delivers the (first) BlackChannelStrip in the Panel.
+     * Delivers the BlackChannelStrip in the Panel.
      * 
-     * @return   The BlackChannelStrip or null in case of any error
+     * @return   The BlackChannelStrip
      */
     public BlackChannelStrip getBlackChannelStrip() {
-        for (Component c: getComponents()) {
-            if (c instanceof BlackChannelStrip) {
-                return (BlackChannelStrip) c;
-            }
-        }
-        return null;
+        return blackStrip;
     }
     
     /**
-     * Delivers the (first) AudioChannelStrip in the Panel.
+     * Delivers the AudioChannelStrip in the Panel.
      * 
-     * @return   The AudioChannelStrip or null in case of any error
+     * @return   The AudioChannelStrip
      */
     public AudioChannelStrip getAudioChannelStrip() {
-        for (Component c: getComponents()) {
-            if (c instanceof AudioChannelStrip) {
-                return (AudioChannelStrip) c;
-            }
-        }
-        return null;
+        return audioStrip;
     }
     
+    /** the channel strips by column */
+    private ChannelStrip strips[] = new ChannelStrip[TheApp.STRIPS];
+
+    /** the strip with the BLACK button */
+    private BlackChannelStrip blackStrip;
+
+    /** the strip controlling the audio player */
+    private AudioChannelStrip audioStrip;
+
+    /** the button switching blind editing on and off */
+    private TButton blindButton;
+
+    /** the button switching to the previous bank */
+    private TButton prevBank;
+
+    /** the button switching to the next bank */
+    private TButton nextBank;
+
+    /** the display of the actual bank number */
+    private T7Segment bankDisplay;
+
     /** the label displayed above the sceneName field */
     private JLabel sceneLabel;
 
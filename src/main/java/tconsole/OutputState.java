@@ -0,0 +1,214 @@
+package tconsole;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * OutputState keeps a checkpoint of the scene states (showing, fade
+ * start and fade time) in the memory mapped file 'output.state'. When
+ * the application gets restarted after a crash, the scenes are restored
+ * from this file before the first DMX frame is sent, the stage shows
+ * the same look as before.
+ *
+ * The checkpoint is written by a background thread, twice a second and
+ * only if a scene has changed since the last checkpoint. The DMX
+ * transmit thread is not involved at all.
+ *
+ * The file has two slots, the checkpoints are written to them in turn.
+ * Every slot carries a sequence number and a CRC32 over the sequence
+ * number and the scene states. A checkpoint interrupted by the crash
+ * fails the CRC check, the other slot still holds the checkpoint
+ * before. The newest valid slot is restored.
+ */
+public class OutputState extends Thread {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * an OutputState is a call to OutputState.initialize()
+     *
+     * @param     b   The mapped checkpoint file
+     */
+    private OutputState(MappedByteBuffer b) {
+        super("OutputState");
+        buffer = b;
+        // keep the newest checkpoint, overwrite the other slot first
+        sequence = newest + 1;
+        slot = (newestSlot == 0) ? 1 : 0;
+        setDaemon(true);
+        start();
+    }
+
+    /**
+     * Restores the scene states from the last checkpoint and starts
+     * the background thread writing new checkpoints. Must be called
+     * after the scenes have been created and loaded.
+     */
+    public static void initialize() {
+        if (theOne != null) return;
+        try (RandomAccessFile raf = new RandomAccessFile(FILE, "rw");
+             FileChannel fc = raf.getChannel()) {
+            boolean restored = (fc.size() == SIZE) && restore(fc.map(FileChannel.MapMode.READ_ONLY, 0, SIZE));
+            if (restored) System.out.println("output state restored from "+FILE);
+            // the mapping stays valid after closing the channel
+            theOne = new OutputState(fc.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        } catch (Exception e) {
+            System.out.println("cannot use "+FILE+": "+e);
+        }
+    }
+
+    /**
+     * Restores the scene states from the newest valid checkpoint
+     *
+     * @param     b   The mapped checkpoint file
+     * @return        true if a checkpoint was valid
+     */
+    private static boolean restore(ByteBuffer b) {
+        int best = -1;
+        for (int i = 0; i < SLOTS; i++) {
+            ByteBuffer s = slot(b, i);
+            if (!isValid(s)) continue;
+            if ((best < 0) || (s.getLong(SEQUENCE) > newest)) {
+                best = i;
+                newest = s.getLong(SEQUENCE);
+            }
+        }
+        if (best < 0) return false;
+        newestSlot = best;
+        ByteBuffer s = slot(b, best);
+        s.position(HEADER);
+        for (int sc = 1; sc <= TheApp.SCENES; sc++) Scene.getScene(sc).readState(s);
+        return true;
+    }
+
+    /**
+     * Checks if a slot holds a complete checkpoint
+     *
+     * @param     s   The slot
+     * @return        true if the checkpoint is valid
+     */
+    private static boolean isValid(ByteBuffer s) {
+        if (s.getInt(0) != MAGIC) return false;
+        if (s.getInt(4) != VERSION) return false;
+        if (s.getInt(8) != TheApp.SCENES) return false;
+        return s.getLong(12) == crc(s);
+    }
+
+    /**
+     * Delivers a slot of the checkpoint file
+     *
+     * @param     b   The mapped checkpoint file
+     * @param     i   The slot (0..SLOTS-1)
+     * @return        The slot, positions are relative to its start
+     */
+    private static ByteBuffer slot(ByteBuffer b, int i) {
+        ByteBuffer d = b.duplicate();
+        d.position(i * SLOT_SIZE);
+        d.limit((i+1) * SLOT_SIZE);
+        return d.slice();
+    }
+
+    /**
+     * Calculates the CRC32 of the sequence number and the scene
+     * states in a slot
+     *
+     * @param     s   The slot
+     * @return        The CRC32 value
+     */
+    private static long crc(ByteBuffer s) {
+        CRC32 crc = new CRC32();
+        ByteBuffer d = s.duplicate();
+        d.position(SEQUENCE);
+        d.limit(SLOT_SIZE);
+        crc.update(d);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a checkpoint of the scene states to the next slot. The
+     * slot holding the checkpoint before is not touched.
+     */
+    private void checkpoint() {
+        ByteBuffer s = slot(buffer, slot);
+        s.position(HEADER);
+        for (int sc = 1; sc <= TheApp.SCENES; sc++) Scene.getScene(sc).writeState(s);
+        s.putInt(0, MAGIC);
+        s.putInt(4, VERSION);
+        s.putInt(8, TheApp.SCENES);
+        s.putLong(SEQUENCE, sequence);
+        s.putLong(12, crc(s));
+        // survive a power loss as well
+        buffer.force();
+        sequence++;
+        slot = (slot + 1) % SLOTS;
+    }
+
+    /**
+     * The background thread. Checks twice a second for changed
+     * scenes and writes a new checkpoint if necessary.
+     */
+    public void run() {
+        int written = -1;
+        for (;;) {
+            int v = Scene.getStateVersion();
+            if (v != written) {
+                try {
+                    checkpoint();
+                    written = v;
+                } catch (Exception e) {
+                    System.out.println("cannot write "+FILE+": "+e);
+                }
+            }
+            try { sleep(INTERVAL); } catch (Exception e) {}
+        }
+    }
+
+    /** the checkpoint file */
+    private static final File FILE = new File("output.state");
+
+    /** the magic number at the beginning of the file ('TCOS') */
+    private static final int MAGIC = 0x54434f53;
+
+    /** the file format version */
+    private static final int VERSION = 2;
+
+    /** the position of the sequence number in a slot, the CRC32 covers it and the scene states */
+    private static final int SEQUENCE = 20;
+
+    /** the slot header size: magic, version, number of scenes, CRC32, sequence number */
+    private static final int HEADER = 28;
+
+    /** the number of slots */
+    private static final int SLOTS = 2;
+
+    /** the size of a slot */
+    private static final int SLOT_SIZE = HEADER + TheApp.SCENES * Scene.STATE_SIZE;
+
+    /** the file size */
+    private static final int SIZE = SLOTS * SLOT_SIZE;
+
+    /** the time between two checks for changed scenes (msecs) */
+    private static final int INTERVAL = 500;
+
+    /** the mapped checkpoint file */
+    private MappedByteBuffer buffer;
+
+    /** the slot the next checkpoint is written to */
+    private int slot;
+
+    /** the sequence number of the next checkpoint */
+    private long sequence;
+
+    /** the sequence number of the restored checkpoint, 0 if none */
+    private static long newest = 0;
+
+    /** the slot of the restored checkpoint, -1 if none */
+    private static int newestSlot = -1;
+
+    /** the one and only instance of OutputState */
+    private static OutputState theOne = null;
+
+}
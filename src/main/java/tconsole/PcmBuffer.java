@@ -0,0 +1,66 @@
+package tconsole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A PcmBuffer holds a completely decoded song as 16 bit little endian
+ * PCM samples in an off-heap (direct) ByteBuffer. PcmBuffers are
+ * created and kept by the PcmCache.
+ */
+public class PcmBuffer {
+
+    /**
+     * Constructs a PcmBuffer
+     *
+     * @param     song       The song number
+     * @param     modified   The modification time of the MP3 file
+     * @param     data       The samples, from position 0 to the limit
+     * @param     rate       The sample rate (Hz)
+     * @param     channels   The number of channels
+     */
+    public PcmBuffer(int song, long modified, ByteBuffer data, int rate, int channels) {
+        this.song = song;
+        this.modified = modified;
+        this.data = data;
+        this.rate = rate;
+        this.channels = channels;
+    }
+
+    /**
+     * Delivers a view of the samples with an own position. Several
+     * threads may read the samples at the same time.
+     *
+     * @return    The samples, positioned at the first sample
+     */
+    public ByteBuffer getSamples() {
+        ByteBuffer b = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        b.position(0);
+        return b;
+    }
+
+    /**
+     * Delivers the memory used by the samples
+     *
+     * @return    The size (bytes)
+     */
+    public int getSize() {
+        return data.capacity();
+    }
+
+    /** The song number */
+    public final int song;
+
+    /** The modification time of the MP3 file when decoded */
+    public final long modified;
+
+    /** The sample rate (Hz) */
+    public final int rate;
+
+    /** The number of channels */
+    public final int channels;
+
+    /** The samples */
+    private final ByteBuffer data;
+
+}
@@ -0,0 +1,237 @@
+package tconsole;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * The PcmCache keeps decoded songs for the InternalPlayer. The songs
+ * played by the next cues are decoded in background before the operator
+ * presses GO (requested by the Prefetcher), PLAY then starts without
+ * any decoding.
+ *
+ * The samples are held in direct ByteBuffers outside of the Java heap.
+ * The total size is limited by the Config parameter 'audio.cache.bytes',
+ * the songs used least recently are dropped if the limit is reached.
+ * A song is decoded again if its MP3 file has been modified.
+ */
+public class PcmCache implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * the PcmCache is a call to PcmCache.initialize()
+     */
+    private PcmCache() {
+        Thread t = new Thread(this, "PcmCache");
+        t.setDaemon(true);
+        // decoding must not disturb DMX output and playback
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Starts the background thread decoding songs.
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new PcmCache();
+    }
+
+    /**
+     * Delivers a decoded song from the cache.
+     *
+     * @param     song   The song number
+     * @return           The decoded song or null if it is not cached
+     */
+    public static synchronized PcmBuffer get(int song) {
+        PcmBuffer p = cache.get(song);
+        if ((p != null) && (p.modified != SongLibrary.getFile(song).lastModified())) {
+            remove(song);
+            p = null;
+        }
+        if (p == null) misses++;
+        else hits++;
+        return p;
+    }
+
+    /**
+     * Requests to decode a song in background, if it is not
+     * yet cached.
+     *
+     * @param     song   The song number
+     */
+    public static synchronized void prepare(int song) {
+        if (theOne == null) return;
+        if ((song < 1) || queue.contains(song)) return;
+        PcmBuffer p = cache.get(song);
+        if ((p != null) && (p.modified == SongLibrary.getFile(song).lastModified())) return;
+        queue.add(song);
+        PcmCache.class.notify();
+    }
+
+    /**
+     * Delivers a one line summary of the cache usage
+     *
+     * @return    The summary
+     */
+    public static synchronized String summary() {
+        return cache.size()+" songs, "+(bytes >> 20)+" of "+(Config.audioCacheBytes >> 20)
+            +" MB, "+hits+" hits, "+misses+" misses";
+    }
+
+    /**
+     * Removes a song from the cache
+     *
+     * @param     song   The song number
+     */
+    private static void remove(int song) {
+        PcmBuffer p = cache.remove(song);
+        if (p != null) bytes -= p.getSize();
+    }
+
+    /**
+     * Adds a decoded song to the cache, drops the songs used
+     * least recently if the cache exceeds its size limit.
+     *
+     * @param     p   The decoded song
+     */
+    private static synchronized void put(PcmBuffer p) {
+        remove(p.song);
+        Iterator<PcmBuffer> i = cache.values().iterator();
+        while ((bytes + p.getSize() > Config.audioCacheBytes) && i.hasNext()) {
+            bytes -= i.next().getSize();
+            i.remove();
+        }
+        cache.put(p.song, p);
+        bytes += p.getSize();
+    }
+
+    /**
+     * Decodes a song completely
+     *
+     * @param     song   The song number
+     * @return           The decoded song
+     * @throws    Exception if the song cannot be read or decoded
+     */
+    private static PcmBuffer decode(int song) throws Exception {
+        File f = SongLibrary.getFile(song);
+        long modified = f.lastModified();
+        ByteBuffer b = null;
+        int rate = 0;
+        int channels = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(f), 65536)) {
+            Bitstream bs = new Bitstream(in);
+            try {
+                Decoder decoder = new Decoder();
+                for (;;) {
+                    Header h = bs.readFrame();
+                    if (h == null) break;
+                    SampleBuffer sb = (SampleBuffer) decoder.decodeFrame(h, bs);
+                    if (b == null) {
+                        // estimate the size from the play time of the file
+                        rate = decoder.getOutputFrequency();
+                        channels = decoder.getOutputChannels();
+                        long ms = (long) h.total_ms((int) f.length());
+                        b = allocate((ms * rate / 1000) * channels * 2 + 65536);
+                    }
+                    int n = sb.getBufferLength();
+                    if (b.remaining() < 2*n) b = grow(b, 2*n);
+                    short s[] = sb.getBuffer();
+                    for (int i = 0; i < n; i++) b.putShort(s[i]);
+                    bs.closeFrame();
+                }
+            } finally {
+                bs.close();
+            }
+        }
+        if (b == null) throw new Exception("no audio frames");
+        b.flip();
+        return new PcmBuffer(song, modified, b, rate, channels);
+    }
+
+    /**
+     * Allocates a direct buffer for samples
+     *
+     * @param     size   The size (bytes)
+     * @return           The buffer
+     * @throws    Exception if the size exceeds the cache size
+     */
+    private static ByteBuffer allocate(long size) throws Exception {
+        if (size > Config.audioCacheBytes) throw new Exception("song exceeds audio.cache.bytes");
+        return ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Replaces a buffer by a larger one if the size estimation
+     * was too small.
+     *
+     * @param     b      The buffer
+     * @param     need   The number of bytes needed in addition
+     * @return           The new buffer
+     * @throws    Exception if the size exceeds the cache size
+     */
+    private static ByteBuffer grow(ByteBuffer b, int need) throws Exception {
+        ByteBuffer n = allocate(b.capacity() + Math.max(need, b.capacity() / 4));
+        b.flip();
+        n.put(b);
+        return n;
+    }
+
+    /**
+     * The background thread. Decodes the requested songs.
+     */
+    public void run() {
+        for (;;) {
+            int song;
+            synchronized (PcmCache.class) {
+                while (queue.isEmpty()) {
+                    try {
+                        PcmCache.class.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                song = queue.getFirst();
+            }
+            try {
+                long t0 = System.nanoTime();
+                PcmBuffer p = decode(song);
+                put(p);
+                System.out.println("song "+song+" decoded in "+((System.nanoTime()-t0)/1000000)
+                    +" msecs, "+summary());
+            } catch (Exception e) {
+                System.out.println("cannot decode song "+song+": "+e);
+            }
+            synchronized (PcmCache.class) {
+                queue.removeFirst();
+            }
+        }
+    }
+
+    /** the decoded songs by song number, in least recently used order */
+    private static LinkedHashMap<Integer,PcmBuffer> cache = new LinkedHashMap<Integer,PcmBuffer>(16, 0.75f, true);
+
+    /** the songs to decode */
+    private static LinkedList<Integer> queue = new LinkedList<Integer>();
+
+    /** the memory used by the decoded songs (bytes) */
+    private static long bytes = 0;
+
+    /** the number of songs played from the cache */
+    private static long hits = 0;
+
+    /** the number of songs which had to be decoded while playing */
+    private static long misses = 0;
+
+    /** the one and only instance of PcmCache */
+    private static PcmCache theOne = null;
+
+}
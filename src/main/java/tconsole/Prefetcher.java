@@ -0,0 +1,133 @@
+package tconsole;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * The Prefetcher prepares the next cues while the operator is still
+ * waiting for the GO. Whenever the cue pointer moves, a background thread
+ * compiles the timelines of the next cues and prepares the songs they
+ * play: with audio.mode=INTERNAL the PcmCache decodes the songs, with
+ * mplayer the MP3 files are read once, so they are in the page cache of
+ * the operating system when mplayer opens them.
+ *
+ * Only the latest position is prefetched. If the pointer moves again
+ * before the background thread is done, the older request is dropped.
+ */
+public class Prefetcher implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * the Prefetcher is a call to Prefetcher.initialize()
+     */
+    private Prefetcher() {
+        Thread t = new Thread(this, "Prefetcher");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Starts the background thread of the Prefetcher.
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new Prefetcher();
+    }
+
+    /**
+     * Requests to prefetch the next cues of a CueList
+     *
+     * @param     cl      The CueList
+     * @param     first   The index of the upcoming cue
+     */
+    public static void prefetch(CueList cl, int first) {
+        if (theOne == null) return;
+        synchronized (theOne) {
+            theOne.cueList = cl;
+            theOne.first = first;
+            theOne.notify();
+        }
+    }
+
+    /**
+     * The background thread. Prefetches the cues requested last.
+     */
+    public void run() {
+        for (;;) {
+            CueList cl;
+            int i;
+            synchronized (this) {
+                while (cueList == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                cl = cueList;
+                i = first;
+                cueList = null;
+            }
+            for (int n = 0; n < LOOKAHEAD; n++) {
+                Cue c = cl.getCue(i+n);
+                if (c == null) break;
+                prefetch(c);
+            }
+        }
+    }
+
+    /**
+     * Prefetches one cue
+     *
+     * @param     c   The cue
+     */
+    private void prefetch(Cue c) {
+        c.compile();
+        for (int s = 0; s < c.getStepCount(); s++) {
+            int song = c.getStep(s).getPlayedSong();
+            if (song <= 0) continue;
+            if (Config.audioMode == Config.INTERNAL) PcmCache.prepare(song);
+            else if (Config.audioMode == Config.MPLAYER) warm(song);
+        }
+    }
+
+    /**
+     * Reads the MP3 file of a song once, this loads it into the page
+     * cache. Files read before are skipped unless they have been
+     * modified.
+     *
+     * @param     song   The song number
+     */
+    private void warm(int song) {
+        File f = SongLibrary.getFile(song);
+        long modified = f.lastModified();
+        Long w = warmed.get(song);
+        if ((w != null) && (w == modified)) return;
+        try (InputStream in = new FileInputStream(f)) {
+            while (in.read(buffer) > 0);
+            warmed.put(song, modified);
+        } catch (Exception e) {
+            System.out.println("cannot prefetch "+f+": "+e);
+        }
+    }
+
+    /** the number of cues prefetched ahead of the cue pointer */
+    private static final int LOOKAHEAD = 3;
+
+    /** the CueList to prefetch, null = nothing to do */
+    private CueList cueList = null;
+
+    /** the index of the first cue to prefetch */
+    private int first = 0;
+
+    /** the modification times of the MP3 files read, by song number */
+    private HashMap<Integer,Long> warmed = new HashMap<Integer,Long>();
+
+    /** the buffer for reading MP3 files */
+    private byte buffer[] = new byte[65536];
+
+    /** the one and only instance of Prefetcher */
+    private static Prefetcher theOne = null;
+
+}
@@ -0,0 +1,237 @@
+package tconsole;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Font;
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * RenderCache keeps pre-rendered images of CachedWidgets. The antialiased
+ * text layout of buttons and 7-segment displays is done once for every
+ * appearance of a widget, repaints become simple image copies.
+ *
+ * The images are keyed by the cache key of the widget, its size and the
+ * scale of the graphic context. A state change of a widget (text, color,
+ * focus, enabled) changes the key and thus renders a new image. Images
+ * not used recently are dropped if the cache exceeds MAX_BYTES.
+ *
+ * The faders (TSliderUI) are not cached: the thumb is an image drawn
+ * by drawImage() already and the track is a plain line, there is no
+ * text layout to save. Caching them would only add a key per position.
+ *
+ * The time spent painting is measured, summary() reports it for
+ * repaints from the cache and for rendered images. benchmark() paints
+ * a bank of widgets with and without the cache (Headless command RENDER).
+ *
+ * The RenderCache must be used on the event dispatch thread only.
+ */
+public class RenderCache {
+
+    /**
+     * Private default constructor. RenderCache provides
+     * static methods only.
+     */
+    private RenderCache() {
+    }
+
+    /**
+     * Paints a widget from the cache. Renders the widget into a
+     * new image if there is no image for its actual appearance.
+     *
+     * @param     g   The graphic context to paint to
+     * @param     c   The widget to paint
+     * @param     w   The width of the widget
+     * @param     h   The height of the widget
+     */
+    public static void paint(Graphics g, CachedWidget c, int w, int h) {
+        if ((w <= 0) || (h <= 0)) return;
+        long t0 = System.nanoTime();
+        Graphics2D g2 = (Graphics2D) g;
+        // render in device pixels on scaled (HiDPI) screens
+        AffineTransform t = g2.getTransform();
+        double sx = t.getScaleX();
+        double sy = t.getScaleY();
+        String key = c.getCacheKey()+"|"+w+"x"+h+"|"+sx+"x"+sy;
+        BufferedImage img = cache.get(key);
+        boolean hit = (img != null);
+        if (!hit) {
+            int iw = (int) Math.ceil(w * sx);
+            int ih = (int) Math.ceil(h * sy);
+            img = new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D ig = img.createGraphics();
+            ig.scale(sx, sy);
+            c.render(ig, w, h);
+            ig.dispose();
+            cache.put(key, img);
+            bytes += size(img);
+            trim();
+        }
+        g2.drawImage(img, 0, 0, w, h, null);
+        long nanos = System.nanoTime() - t0;
+        if (hit) {
+            hits++;
+            hitNanos += nanos;
+        } else {
+            misses++;
+            missNanos += nanos;
+        }
+    }
+
+    /**
+     * Builds the part of a cache key describing a color
+     *
+     * @param     c   The color
+     * @return        The key part
+     */
+    public static String key(Color c) {
+        return Integer.toHexString(c.getRGB());
+    }
+
+    /**
+     * Builds the part of a cache key describing a font
+     *
+     * @param     f   The font
+     * @return        The key part
+     */
+    public static String key(Font f) {
+        return f.getName()+"-"+f.getStyle()+"-"+f.getSize2D();
+    }
+
+    /**
+     * Drops all cached images and resets the statistics.
+     */
+    public static void clear() {
+        cache.clear();
+        bytes = 0;
+        hits = 0;
+        misses = 0;
+        hitNanos = 0;
+        missNanos = 0;
+    }
+
+    /**
+     * Delivers a one line summary of the cache usage
+     *
+     * @return    The summary
+     */
+    public static String summary() {
+        return cache.size()+" images, "+(bytes/1024)+" KB, "+hits+" hits ("+usecs(hitNanos, hits)
+            +" usecs), "+misses+" misses ("+usecs(missNanos, misses)+" usecs)";
+    }
+
+    /**
+     * Measures the time needed to paint a bank of widgets like the
+     * channel strips show them: STRIPS buttons and STRIPS 7-segment
+     * displays. Every frame changes the number of one display, like
+     * a running fade does. The bank is painted without the cache
+     * (rendering every widget) and with the cache. Must be called on
+     * the event dispatch thread.
+     *
+     * @param     frames   The number of frames to paint
+     * @return             The result, time per frame without and with the cache
+     */
+    public static String benchmark(int frames) {
+        int n = TheApp.STRIPS;
+        CachedWidget w[] = new CachedWidget[2*n];
+        T7Segment seg[] = new T7Segment[n];
+        for (int i = 0; i < n; i++) {
+            w[i] = new TButton("Scene "+(i+1));
+            seg[i] = new T7Segment("LEVEL");
+            w[n+i] = seg[i];
+        }
+        BufferedImage screen = new BufferedImage(WIDGET_SIZE, WIDGET_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        long before = 0;
+        long after = 0;
+        // the first pass lets the JIT compile the painting
+        for (int p = 0; p < 2; p++) {
+            clear();
+            long t0 = System.nanoTime();
+            for (int f = 0; f < frames; f++) {
+                seg[f % n].setSegments(String.format("%02d", f % 100));
+                for (CachedWidget c: w) {
+                    Graphics2D g = screen.createGraphics();
+                    c.render(g, WIDGET_SIZE, WIDGET_SIZE);
+                    g.dispose();
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int f = 0; f < frames; f++) {
+                seg[f % n].setSegments(String.format("%02d", f % 100));
+                for (CachedWidget c: w) {
+                    Graphics2D g = screen.createGraphics();
+                    paint(g, c, WIDGET_SIZE, WIDGET_SIZE);
+                    g.dispose();
+                }
+            }
+            before = t1 - t0;
+            after = System.nanoTime() - t1;
+        }
+        String result = frames+" frames of "+w.length+" widgets, "+usecs(before, frames)+" usecs per frame rendered, "
+            +usecs(after, frames)+" usecs cached ("+summary()+")";
+        clear();
+        return result;
+    }
+
+    /**
+     * Delivers an average time in usecs
+     *
+     * @param     nanos   The total time (nsecs)
+     * @param     n       The number of measurements
+     * @return            The average (usecs), 0 without measurements
+     */
+    private static long usecs(long nanos, long n) {
+        return (n > 0) ? nanos / n / 1000 : 0;
+    }
+
+    /**
+     * Drops the least recently used images until the cache
+     * fits into MAX_BYTES.
+     */
+    private static void trim() {
+        Iterator<BufferedImage> i = cache.values().iterator();
+        while ((bytes > MAX_BYTES) && i.hasNext()) {
+            bytes -= size(i.next());
+            i.remove();
+        }
+    }
+
+    /**
+     * Delivers the memory size of an image
+     *
+     * @param     img   The image
+     * @return          The size (bytes)
+     */
+    private static long size(BufferedImage img) {
+        return 4L * img.getWidth() * img.getHeight();
+    }
+
+    /** the size of the widgets painted by benchmark(), like a 7-segment display */
+    private static final int WIDGET_SIZE = 71;
+
+    /** the max. memory used by the cached images (bytes) */
+    private static final long MAX_BYTES = 8L * 1024 * 1024;
+
+    /** the cached images, in least recently used order */
+    private static LinkedHashMap<String,BufferedImage> cache =
+        new LinkedHashMap<String,BufferedImage>(64, 0.75f, true);
+
+    /** the memory used by the cached images (bytes) */
+    private static long bytes = 0;
+
+    /** the number of repaints served from the cache */
+    private static long hits = 0;
+
+    /** the number of images rendered */
+    private static long misses = 0;
+
+    /** the time spent painting from the cache (nsecs) */
+    private static long hitNanos = 0;
+
+    /** the time spent rendering images (nsecs) */
+    private static long missNanos = 0;
+
+}
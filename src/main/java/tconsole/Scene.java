@@ -3,15 +3,16 @@ package tconsole;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 
 
 /**
  * The class Scene contains the fader positions for one scene
  * together with methods to manage fade in/out and scene editing
  * 
- * There are TheApp.CHANNELS Scene objects in the software one for 
- * each scene button below the fader in the main screen
+ * There are TheApp.SCENES Scene objects in the software one for 
+ * each scene button below the fader in the main screen. Each scene
+ * holds a level for all TheApp.CHANNELS channels.
  */
 public class Scene {
 
@@ -36,6 +37,23 @@ public class Scene {
         scenes[n-1] = this;
     }
 
+    /**
+     * Constructs a shadow copy of a scene. The copy is not showing
+     * and not registered in the list of scenes.
+     *
+     * @param s   The scene to copy
+     */
+    private Scene(Scene s) {
+        values = s.values.clone();
+        edit = false;
+        showing = false;
+        started = 0;
+        fadeTime = 0;
+        sceneNumber = s.sceneNumber;
+        name = s.name;
+        shadow = true;
+    }
+
     /**
      * Sets the edit mode for the scene. In edit mode the scene always
      * shows the programmed values as actual values in getValues()
@@ -53,7 +71,7 @@ public class Scene {
      * out-of-range 'channel'values are ignored, 'value' gets limited
      * to 0..1 inside the method
      * 
-     * @param     channel   The channel number (1..16) to set.
+     * @param     channel   The channel number (1..CHANNELS) to set.
      * @param     value     The value to set for this channel (0..1)
      */
     public void setValue(int channel, float value) {
@@ -69,7 +87,7 @@ public class Scene {
     /**
      * Gets the programmed value of a particular channel in the scene.
      * 
-     * @param     channel   The channel (1..16)
+     * @param     channel   The channel (1..CHANNELS)
      * @return              The programmed channel value
      */
     public float getValue(int channel) {
@@ -81,33 +99,87 @@ public class Scene {
     }
 
     /**
-     * Gets the actual channel values for this scene, This respects the
-     * actual fade-on/out and edit settings for the scene.
+     * Merges the actual channel values of this scene into the
+     * accumulated levels. Respects the actual fade-in/out and edit
+     * settings for the scene and the audio modulation ('scene.NN.modulation').
+     * For every channel, the higher value of
+     * the accumulated level and the scene's level is kept.
      * 
-     * @return  A float array with the actual channel levels of this scene
+     * @param     acc   The accumulated levels
      */
-    public float[] getActualValues() {
+    public void accumulateInto(float acc[]) {
         synchronized(LOCK) {
-            if (edit) return values;
-            float retval[] = new float[TheApp.CHANNELS];
-            if (showing) {
-                if (fadeTime == 0) return values;
+            float a = 1.0f;
+            if (!edit) {
                 long dt = System.currentTimeMillis() - started;
                 if (dt > fadeTime) dt = fadeTime;
-                float a = ((float)dt) / ((float)fadeTime);
-                for (int i = 0; i < values.length; i++) retval[i] = values[i] * a;
-                return retval;
-            } else {
-                if (fadeTime == 0) return retval;
-                long dt = System.currentTimeMillis() - started;
-                if (dt > fadeTime) dt = fadeTime;
-                float a = ((float)(fadeTime-dt)) / ((float)fadeTime);
-                for (int i = 0; i < values.length; i++) retval[i] = values[i] * a;
-                return retval;
+                if (showing) {
+                    if (fadeTime > 0) a = ((float)dt) / ((float)fadeTime);
+                } else {
+                    if (fadeTime == 0) return;
+                    a = ((float)(fadeTime-dt)) / ((float)fadeTime);
+                }
+                // audio-reactive scenes follow the song playing
+                int m = Config.sceneModulation[sceneNumber-1];
+                if (m != AudioAnalyzer.NONE) a *= AudioAnalyzer.modulation(m, Config.sceneModulationDepth[sceneNumber-1]);
+            }
+            for (int i = 0; i < values.length; i++) {
+                float v = values[i] * a;
+                if (v > acc[i]) acc[i] = v;
             }
         }
     }
 
+    /**
+     * Merges the programmed channel values of this scene into the
+     * accumulated levels, regardless of the scene's state. Used for
+     * the preview of a blind edited scene.
+     * 
+     * @param     acc   The accumulated levels
+     */
+    public void mergeInto(float acc[]) {
+        synchronized(LOCK) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] > acc[i]) acc[i] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Creates a shadow copy of this scene, used for blind editing.
+     * Changes to the copy do not show up in the output, the shadow
+     * is not in the list of scenes.
+     * 
+     * @return    The shadow copy
+     */
+    public Scene createShadow() {
+        synchronized(LOCK) {
+            return new Scene(this);
+        }
+    }
+
+    /**
+     * Takes over the programmed values and the name of a shadow
+     * copy created by createShadow().
+     * 
+     * @param     s   The shadow copy
+     */
+    public void commit(Scene s) {
+        synchronized(LOCK) {
+            System.arraycopy(s.values, 0, values, 0, values.length);
+            name = s.name;
+        }
+    }
+
+    /**
+     * Checks if this scene is a shadow copy
+     * 
+     * @return    true if created by createShadow()
+     */
+    public boolean isShadow() {
+        return shadow;
+    }
+
     /**
      * Tells the scene to fade in with the given fade in time 
      * 
@@ -118,7 +190,9 @@ public class Scene {
             fadeTime = t;
             started = System.currentTimeMillis();
             showing = true;
+            stateVersion++;
         }
+        Latency.mark(Latency.SCENE);
     }
 
     /**
@@ -131,6 +205,19 @@ public class Scene {
             fadeTime = t;
             started = System.currentTimeMillis();
             showing = false;
+            stateVersion++;
+        }
+        Latency.mark(Latency.SCENE);
+    }
+
+    /**
+     * Checks if this scene is showing or fading in.
+     * 
+     * @return    true if the scene is showing
+     */
+    public boolean isShowing() {
+        synchronized(LOCK) {
+            return showing;
         }
     }
 
@@ -150,6 +237,46 @@ public class Scene {
         return System.currentTimeMillis() < (started + fadeTime);
     }
 
+    /**
+     * Writes the fade state of the scene (STATE_SIZE bytes) to a
+     * buffer. Used for the checkpoints of the OutputState.
+     * 
+     * @param     b   The buffer to write to
+     */
+    void writeState(ByteBuffer b) {
+        synchronized (LOCK) {
+            b.put((byte) (showing ? 1 : 0));
+            b.putLong(started);
+            b.putLong(fadeTime);
+        }
+    }
+
+    /**
+     * Restores the fade state of the scene written by writeState().
+     * A fade still running continues, the fade start is stored as
+     * wall clock time.
+     * 
+     * @param     b   The buffer to read from
+     */
+    void readState(ByteBuffer b) {
+        synchronized (LOCK) {
+            showing = b.get() != 0;
+            started = b.getLong();
+            fadeTime = b.getLong();
+            stateVersion++;
+        }
+    }
+
+    /**
+     * Delivers a counter which changes whenever any scene has been
+     * faded in or out.
+     * 
+     * @return    The counter
+     */
+    public static int getStateVersion() {
+        return stateVersion;
+    }
+
     /**
      * Returns a string with the channel levels, separated by
      * comma characters, Used to write the scene settings in a file
@@ -179,7 +306,8 @@ public class Scene {
         try {
             String words[] = s.split("\\;");
             name = words[0];
-            for (int i = 0; i < values.length; i++) {
+            // files written with less channels leave the other channels at 0
+            for (int i = 0; (i < values.length) && (i+1 < words.length); i++) {
                 int v = Integer.parseInt(words[i+1]);
                 values[i] = v / 1000.0f;
             }
@@ -196,6 +324,15 @@ public class Scene {
         name = n;
     }
 
+    /**
+     * Delivers the scene's number
+     * 
+     * @return     The scene number (1..16)
+     */
+    public int getNumber() {
+        return sceneNumber;
+    }
+
     /**
      * Delivers the scene's name
      * 
@@ -218,13 +355,23 @@ public class Scene {
     }
 
     /**
-     * Loads all scenes from the scenes.txt file
+     * Creates all scenes. Must be called once on startup before
+     * scenes are used.
+     * 
+     */
+    public static void initialize() {
+        for (int sc = 1; sc <= TheApp.SCENES; sc++) new Scene(sc);
+    }
+
+    /**
+     * Loads all scenes from the scenes.txt file and applies the
+     * changes saved to the journal since.
      * 
      */
     public static void load() {
         try {
             int sn = 0;
-            BufferedReader in = new BufferedReader(new FileReader("scenes.txt"));
+            BufferedReader in = new BufferedReader(new FileReader(ScenePersistence.SCENES));
             for (;;) {
                 String line = in.readLine();
                 if (line == null) break;
@@ -235,22 +382,16 @@ public class Scene {
         } catch (Exception e) {
             // ignore that
         }
+        ScenePersistence.recover();
     }
 
     /**
-     * Saves all scenes to the scenes.txt file 
+     * Saves all changed scenes. The scenes are written in background
+     * by ScenePersistence, this method returns immediately.
      * 
      */
     public static void save() {
-        try {
-            PrintWriter out = new PrintWriter("scenes.txt");
-            for (int sn = 0; sn < TheApp.SCENES; sn++) {
-                out.println(scenes[sn].toString());
-            }
-            out.close();
-        } catch (Exception e) {
-            // ignore that
-        }
+        ScenePersistence.save();
     }
 
     /** the scene number (1..16) */
@@ -271,6 +412,9 @@ public class Scene {
     /** the actual fade time to be used (msecs) */
     private long fadeTime;
 
+    /** true = the scene is a shadow copy for blind editing */
+    private boolean shadow = false;
+
     /** the programmed fader values for the scene (0..1) */
     private float values[];
 
@@ -281,9 +425,15 @@ public class Scene {
      */
     private static final Object LOCK = new Object();
 
+    /** the size of the fade state written by writeState() */
+    static final int STATE_SIZE = 17;
+
+    /** incremented whenever the fade state of any scene changes */
+    private static volatile int stateVersion = 0;
+
     /**
      * A list of all scenes which exist in the program
      */
-    private static Scene scenes[] = new Scene[TheApp.CHANNELS];
+    private static Scene scenes[] = new Scene[TheApp.SCENES];
 
 }
@@ -21,17 +21,25 @@ public class SceneButton extends TButton {
     }
 
     /**
-     * Paints the component
+     * Delivers the cache key of the actual appearance of the button
      * 
-     * @param     g   The graphic context to use for painting
+     * @return    The cache key
      */
     @Override
-    public void paint(Graphics g) {
-        super.paint(g);
-        Graphics2D g2 = (Graphics2D)g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        int w = getBounds().width;
-        int h = getBounds().height;
+    public String getCacheKey() {
+        return super.getCacheKey()+"|"+scene.getName();
+    }
+
+    /**
+     * Renders the button, adds the scene name
+     * 
+     * @param     g2   The graphic context to render to
+     * @param     w    The width of the button
+     * @param     h    The height of the button
+     */
+    @Override
+    public void render(Graphics2D g2, int w, int h) {
+        super.render(g2, w, h);
         if (isEnabled()) {
             g2.setColor(getForeground());
         } else {
@@ -0,0 +1,266 @@
+package tconsole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * ScenePersistence stores the scenes in background, the UI never waits
+ * for the disk. Saving a scene appends a line to the journal file
+ * 'scenes.journal' and syncs it to disk. Every line carries a CRC32,
+ * a line which was not completely written when the power went off is
+ * detected and ignored.
+ *
+ * From time to time, the journal is compacted: all scenes are written
+ * to a temporary file which then atomically replaces 'scenes.txt', the
+ * directory is synced to make the rename durable and the journal gets
+ * emptied afterwards. At any time, 'scenes.txt' plus the valid lines of
+ * the journal contain the last saved state of all scenes.
+ *
+ * On startup, Scene.load() reads 'scenes.txt' and calls recover(),
+ * which replays the journal.
+ */
+public class ScenePersistence extends Thread {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * a ScenePersistence is a call to ScenePersistence.initialize()
+     */
+    private ScenePersistence() {
+        this(true);
+        // save pending changes when the application ends
+        Runtime.getRuntime().addShutdownHook(
+            new Thread() {
+                public void run() {
+                    persist();
+                }
+            }
+        );
+        start();
+    }
+
+    /**
+     * Constructs a ScenePersistence without background thread, used
+     * by the tests which call persist() and compact() directly.
+     *
+     * @param     offline   Ignored, distinguishes the constructors
+     */
+    ScenePersistence(boolean offline) {
+        super("ScenePersistence");
+        setDaemon(true);
+        // remember the state of the scenes as they have been loaded
+        for (int sn = 0; sn < TheApp.SCENES; sn++) saved[sn] = Scene.getScene(sn+1).toString();
+    }
+
+    /**
+     * Starts the background thread. Must be called after Scene.load().
+     */
+    public static void initialize() {
+        if (theOne == null) theOne = new ScenePersistence();
+    }
+
+    /**
+     * Requests to save all changed scenes. Returns immediately, the
+     * scenes are saved in background.
+     */
+    public static void save() {
+        if (theOne == null) return;
+        synchronized (theOne) {
+            theOne.pending = true;
+            theOne.notify();
+        }
+    }
+
+    /**
+     * Replays the journal after 'scenes.txt' has been loaded. Lines with
+     * a wrong CRC (the last line, if the application died while writing
+     * it) end the replay.
+     *
+     * @return    The number of journal lines replayed
+     */
+    static int recover() {
+        int n = 0;
+        if (!JOURNAL.isFile()) return 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(JOURNAL, StandardCharsets.UTF_8))) {
+            for (;;) {
+                String line = in.readLine();
+                if (line == null) break;
+                // <crc>;<scene number>;<scene>
+                int i = line.indexOf(';');
+                int j = line.indexOf(';', i+1);
+                if ((i < 0) || (j < 0)) break;
+                String data = line.substring(i+1);
+                if (Long.parseLong(line.substring(0, i), 16) != crc(data)) break;
+                int sn = Integer.parseInt(line.substring(i+1, j));
+                if ((sn < 1) || (sn > TheApp.SCENES)) break;
+                Scene.getScene(sn).fromString(line.substring(j+1));
+                n++;
+            }
+        } catch (Exception e) {
+            // ignore the rest of the journal
+        }
+        if (n > 0) System.out.println(n+" scene changes recovered from "+JOURNAL);
+        return n;
+    }
+
+    /**
+     * Saves all scenes which have changed since they have been
+     * saved the last time.
+     */
+    synchronized void persist() {
+        pending = false;
+        try {
+            StringBuffer b = new StringBuffer();
+            for (int sn = 0; sn < TheApp.SCENES; sn++) {
+                String s = Scene.getScene(sn+1).toString();
+                if (s.equals(saved[sn])) continue;
+                String data = (sn+1)+";"+s;
+                b.append(Long.toHexString(crc(data)));
+                b.append(';');
+                b.append(data);
+                b.append('\n');
+                saved[sn] = s;
+                journaled++;
+            }
+            if (b.length() > 0) append(b.toString());
+            if (journaled >= COMPACT_LIMIT) compact();
+        } catch (Exception e) {
+            System.out.println("cannot save scenes: "+e);
+        }
+    }
+
+    /**
+     * Appends lines to the journal and syncs the journal to disk
+     *
+     * @param     lines   The lines to append
+     * @throws    IOException if writing fails
+     */
+    private void append(String lines) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(JOURNAL, true)) {
+            out.write(lines.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Writes all scenes to 'scenes.txt' and empties the journal. The
+     * scenes are written to a temporary file first, which then replaces
+     * 'scenes.txt' in an atomic rename.
+     *
+     * @throws    IOException if writing fails
+     */
+    void compact() throws IOException {
+        writeTemp();
+        Files.move(TMP.toPath(), SCENES.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(SCENES);
+        // the journal is obsolete now, replaying it again does no harm
+        // if the application dies before it is emptied
+        new FileOutputStream(JOURNAL).close();
+        journaled = 0;
+    }
+
+    /**
+     * Writes all scenes to the temporary file and syncs it to disk,
+     * the first step of compact(). A crash after this step leaves
+     * 'scenes.txt' and the journal as they were.
+     *
+     * @throws    IOException if writing fails
+     */
+    void writeTemp() throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(TMP);
+             Writer out = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            for (int sn = 0; sn < TheApp.SCENES; sn++) {
+                out.write(saved[sn]);
+                out.write('\n');
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Syncs the directory of a file to disk. A rename changes the
+     * directory only, without this the old file may be back after a
+     * power failure.
+     *
+     * @param     f   The file
+     */
+    private static void syncDirectory(File f) {
+        File dir = f.getAbsoluteFile().getParentFile();
+        try (FileChannel c = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            c.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on every platform (Windows)
+        }
+    }
+
+    /**
+     * Calculates the CRC32 of a journal line
+     *
+     * @param     s   The line content
+     * @return        The CRC32 value
+     */
+    private static long crc(String s) {
+        CRC32 crc = new CRC32();
+        crc.update(s.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * The background thread. Waits for save requests.
+     */
+    public void run() {
+        // compact a journal left by the last run
+        if (JOURNAL.length() > 0) {
+            journaled = COMPACT_LIMIT;
+            persist();
+        }
+        for (;;) {
+            synchronized (this) {
+                while (!pending) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            persist();
+        }
+    }
+
+    /** the scenes file */
+    static final File SCENES = new File("scenes.txt");
+
+    /** the temporary file used for compaction */
+    static final File TMP = new File("scenes.txt.tmp");
+
+    /** the journal file */
+    static final File JOURNAL = new File("scenes.journal");
+
+    /** the number of journal lines which triggers a compaction */
+    private static final int COMPACT_LIMIT = 32;
+
+    /** the scenes as they have been saved the last time */
+    private String saved[] = new String[TheApp.SCENES];
+
+    /** the number of lines in the journal */
+    private int journaled = 0;
+
+    /** true = a save has been requested */
+    private boolean pending = false;
+
+    /** the one and only instance of ScenePersistence */
+    private static ScenePersistence theOne = null;
+
+}
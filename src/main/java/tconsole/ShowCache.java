@@ -0,0 +1,190 @@
+package tconsole;
+
+import java.io.File;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Vector;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * ShowCache stores a compiled CueList in a binary file next to
+ * 'show.txt'. Loading the binary file is much faster than parsing
+ * 'show.txt' again, this makes the CueWindow appear immediately even
+ * for shows with thousands of cues.
+ *
+ * The cache file starts with a header which contains a magic number,
+ * a format version and size, modification time and CRC32 of the
+ * 'show.txt' file it was compiled from. The cache is only used if the
+ * header matches the actual 'show.txt' file. Any problem with the
+ * cache file just makes the CueList parse 'show.txt' again.
+ *
+ * The cache file is read through a memory mapped buffer.
+ */
+public class ShowCache {
+
+    /**
+     * Private default constructor. ShowCache provides
+     * static methods only.
+     */
+    private ShowCache() {
+    }
+
+    /**
+     * Delivers the cache file belonging to a show file.
+     *
+     * @param     show   The show file ('show.txt')
+     * @return           The cache file ('show.cache' in the same directory)
+     */
+    public static File getCacheFile(File show) {
+        File dir = show.getAbsoluteFile().getParentFile();
+        String name = show.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        return new File(dir, name+".cache");
+    }
+
+    /**
+     * Calculates the CRC32 checksum of a file. The file is mapped
+     * into memory for this.
+     *
+     * @param     f   The file to check
+     * @return        The CRC32 value
+     * @throws    IOException if the file cannot be read
+     */
+    public static long checksum(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel fc = raf.getChannel()) {
+            CRC32 crc = new CRC32();
+            if (fc.size() > 0) crc.update(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Loads the compiled cues from the cache file. Fills 'cues' with
+     * the cues and 'markers' with the named markers found in the cache.
+     *
+     * @param     show      The show file the cache belongs to
+     * @param     cues      Receives the cues read from the cache
+     * @param     markers   Receives the marker names and cue indices
+     * @return              true if the cache was valid and has been
+     *                      read, false if 'show.txt' must be parsed
+     */
+    public static boolean load(File show, Vector<Cue> cues, Map<String,Integer> markers) {
+        File cache = getCacheFile(show);
+        if (!cache.isFile() || !show.isFile()) return false;
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r");
+             FileChannel fc = raf.getChannel()) {
+            MappedByteBuffer b = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            if (b.getInt() != MAGIC) return false;
+            if (b.getInt() != VERSION) return false;
+            long size = b.getLong();
+            long mtime = b.getLong();
+            long crc = b.getLong();
+            if (size != show.length()) return false;
+            // a changed modification time alone does not invalidate
+            // the cache, the file might just have been touched
+            if (mtime != show.lastModified() && crc != checksum(show)) return false;
+            int n = b.getInt();
+            for (int i = 0; i < n; i++) {
+                String name = readString(b);
+                markers.put(name, b.getInt());
+            }
+            n = b.getInt();
+            Vector<Cue> cl = new Vector<Cue>(n);
+            for (int i = 0; i < n; i++) cl.add(Cue.readFrom(b));
+            cues.addAll(cl);
+            return true;
+        } catch (Exception e) {
+            // a damaged or outdated cache, parse show.txt instead
+            return false;
+        }
+    }
+
+    /**
+     * Saves the compiled cues to the cache file. The file is written
+     * to a temporary file first which then replaces the cache file,
+     * a concurrently reading CueList never sees a partially written cache.
+     * Errors are ignored, the cache is just not written in this case.
+     *
+     * @param     show      The show file the cues have been parsed from
+     * @param     cues      The compiled cues
+     * @param     markers   The marker names and cue indices
+     */
+    public static void save(File show, Vector<Cue> cues, Map<String,Integer> markers) {
+        File cache = getCacheFile(show);
+        File tmp = new File(cache.getPath()+".tmp");
+        try {
+            long size = show.length();
+            long mtime = show.lastModified();
+            long crc = checksum(show);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(mtime);
+                out.writeLong(crc);
+                out.writeInt(markers.size());
+                for (Map.Entry<String,Integer> m: markers.entrySet()) {
+                    writeString(out, m.getKey());
+                    out.writeInt(m.getValue());
+                }
+                out.writeInt(cues.size());
+                for (Cue c: cues) c.writeTo(out);
+            }
+            Files.move(tmp.toPath(), cache.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.out.println("failed to write "+cache);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Writes a String to the cache file. Strings are stored as
+     * UTF-8 bytes preceded by the byte count.
+     *
+     * @param     out   The stream to write to
+     * @param     s     The String to write
+     * @throws    IOException if writing fails
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte b[] = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads a String written by writeString()
+     *
+     * @param     b   The buffer to read from
+     * @return        The String read
+     */
+    static String readString(ByteBuffer b) {
+        int n = b.getInt();
+        byte s[] = new byte[n];
+        b.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+
+    /** The magic number at the beginning of a cache file ('TCSC') */
+    private static final int MAGIC = 0x54435343;
+
+    /**
+     * The cache file format version. Must be incremented whenever
+     * the compiled form of cues or cue steps changes.
+     */
+    private static final int VERSION = 7;
+
+}
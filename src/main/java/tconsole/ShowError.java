@@ -0,0 +1,72 @@
+package tconsole;
+
+/**
+ * A ShowError describes an error found by the ShowParser
+ * while parsing the show file.
+ *
+ */
+public class ShowError {
+
+    /**
+     * Constructs a ShowError
+     *
+     * @param     file      The name of the show file
+     * @param     line      The line number (1 based)
+     * @param     column    The column number (1 based)
+     * @param     message   The error message
+     */
+    public ShowError(String file, int line, int column, String message) {
+        this.file = file;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    /**
+     * Delivers the line number where the error was found
+     *
+     * @return    The line number (1 based)
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Delivers the column number where the error was found
+     *
+     * @return    The column number (1 based)
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Delivers the error message
+     *
+     * @return    The message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the error as a string in the form 'file:line:column: message'
+     *
+     * @return    The error as a string
+     */
+    public String toString() {
+        return file+":"+line+":"+column+": "+message;
+    }
+
+    /** the name of the show file */
+    private String file;
+
+    /** the line number */
+    private int line;
+
+    /** the column number */
+    private int column;
+
+    /** the error message */
+    private String message;
+}
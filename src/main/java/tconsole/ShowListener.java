@@ -0,0 +1,18 @@
+package tconsole;
+
+
+/**
+ * The ShowListener interface is used by the ShowWatcher to hand
+ * a (re-)loaded CueList to the UI.
+ * 
+ */
+public interface ShowListener {
+
+    /**
+     * Tells that 'show.txt' has been (re-)loaded.
+     * 
+     * @param     cl   The new CueList
+     */
+    public void showLoaded(CueList cl);
+
+}
@@ -0,0 +1,508 @@
+package tconsole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.HashMap;
+
+/**
+ * The ShowParser compiles a show file ('show.txt') into a list of
+ * Cue objects. The parser reads the file in a single pass from a Reader,
+ * it does not stop at the first error but collects all errors found
+ * together with their line and column numbers.
+ *
+ * The parser works on a reused line buffer, tokens are kept as offsets
+ * into this buffer. Strings are created only for cue titles and
+ * descriptions, numbers are converted directly from the buffer.
+ *
+ * The syntax of the show file is described at the top of the example
+ * 'show.txt' file.
+ */
+public class ShowParser {
+
+    /**
+     * Constructs a ShowParser.
+     *
+     * @param     in     The Reader delivering the show file
+     * @param     name   The name of the show file, used for error messages
+     */
+    public ShowParser(Reader in, String name) {
+        this.in = in;
+        this.name = name;
+        cues = new Vector<Cue>();
+        errors = new Vector<ShowError>();
+        markers = new HashMap<String,Integer>();
+    }
+
+    /**
+     * Parses the show file.
+     *
+     * @return    true if no errors have been found
+     * @throws    IOException if reading the file fails
+     */
+    public boolean parse() throws IOException {
+        while (readLine()) {
+            lineNo++;
+            parseLine();
+        }
+        return errors.size() == 0;
+    }
+
+    /**
+     * Delivers the cues found in the show file
+     *
+     * @return    The compiled cues
+     */
+    public Vector<Cue> getCues() {
+        return cues;
+    }
+
+    /**
+     * Delivers the named markers and the indices of the cues they
+     * point to.
+     *
+     * @return    The marker names and cue indices
+     */
+    public HashMap<String,Integer> getMarkers() {
+        return markers;
+    }
+
+    /**
+     * Delivers the errors found in the show file
+     *
+     * @return    The errors, an empty list if there are none
+     */
+    public Vector<ShowError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Reads the next line into the line buffer.
+     *
+     * @return    false if the end of the file has been reached
+     * @throws    IOException if reading the file fails
+     */
+    private boolean readLine() throws IOException {
+        len = 0;
+        for (;;) {
+            if (pos >= count) {
+                pos = 0;
+                count = in.read(buf, 0, buf.length);
+                if (count <= 0) {
+                    count = 0;
+                    return len > 0;
+                }
+            }
+            char c = buf[pos++];
+            if (c == '\n') return true;
+            if (len == line.length) line = Arrays.copyOf(line, 2*len);
+            line[len++] = c;
+        }
+    }
+
+    /**
+     * Splits the line buffer into tokens. Everything after a '#'
+     * character is a comment and gets ignored.
+     */
+    private void tokenize() {
+        int end = len;
+        for (int i = 0; i < len; i++) {
+            if (line[i] == '#') {
+                end = i;
+                break;
+            }
+        }
+        tokens = 0;
+        lastEnd = 0;
+        int i = 0;
+        for (;;) {
+            while ((i < end) && isSpace(line[i])) i++;
+            if (i >= end) break;
+            int s = i;
+            while ((i < end) && !isSpace(line[i])) i++;
+            if (tokens < MAX_TOKENS) {
+                tokStart[tokens] = s;
+                tokEnd[tokens] = i;
+            }
+            tokens++;
+            lastEnd = i;
+        }
+    }
+
+    /**
+     * Parses the line in the line buffer.
+     */
+    private void parseLine() {
+        tokenize();
+
+        // description lines follow the CUE line until an empty line
+        if (expectDescription) {
+            if (tokens == 0) {
+                expectDescription = false;
+            } else {
+                cues.lastElement().addDescription(text(tokStart[0], lastEnd));
+            }
+            return;
+        }
+        if (tokens == 0) return;
+
+        // AT <position> <step> executes the step at a position of the song
+        at = -1;
+        if (is(0, "AT")) {
+            if (tokens < 3) {
+                error(0, "AT must be followed by the song position and a cue step");
+                return;
+            }
+            at = decimal(1);
+            if (at < 0) {
+                error(1, "AT with invalid song position");
+                return;
+            }
+            dropTokens(2);
+            if (is(0, "CUE") || is(0, "MARKER") || is(0, "NUMBER") || is(0, "DELAY")) {
+                error(0, "AT must be followed by a SCENE, BLACK, PLAY, STOP, VOLUME or XFADE step");
+                return;
+            }
+        }
+
+        // <audio step> VOICE <n> plays on another audio voice. other
+        // lines are left alone, a cue title may end with 'VOICE 2'
+        voice = 1;
+        boolean audio = is(0, "PLAY") || is(0, "STOP") || is(0, "VOLUME") || is(0, "XFADE");
+        if (audio && (tokens >= 3) && is(tokens-2, "VOICE")) {
+            voice = integer(tokens-1);
+            if ((voice < 1) || (voice > Config.audioVoices)) {
+                error(tokens-1, "VOICE with invalid voice number");
+                return;
+            }
+            tokens -= 2;
+        }
+
+        if (is(0, "CUE")) {
+            String title = (tokens > 1) ? text(tokStart[1], lastEnd) : "";
+            Cue cue = new Cue(title);
+            // cues without a NUMBER statement get the next integer number
+            if (cues.size() > 0) {
+                cue.setNumber((cues.lastElement().getNumber()/1000 + 1) * 1000);
+            } else {
+                cue.setNumber(1000);
+            }
+            cues.add(cue);
+            expectDescription = true;
+        } else if (is(0, "MARKER")) {
+            if (tokens != 2) {
+                error(0, "MARKER must be followed by a marker name");
+                return;
+            }
+            String m = text(tokStart[1], tokEnd[1]);
+            if (markers.containsKey(m)) {
+                error(1, "MARKER '"+m+"' is already defined");
+                return;
+            }
+            markers.put(m, cues.size());
+        } else if (is(0, "NUMBER")) {
+            if (tokens != 2) {
+                error(0, "NUMBER must be followed by the cue number");
+                return;
+            }
+            int n = decimal(1);
+            if (n < 0) {
+                error(1, "NUMBER with invalid cue number");
+                return;
+            }
+            if (cues.size() == 0) {
+                error(0, "NUMBER before the first CUE");
+                return;
+            }
+            if ((cues.size() > 1) && (n <= cues.elementAt(cues.size()-2).getNumber())) {
+                error(1, "NUMBER must be greater than the number of the previous cue");
+                return;
+            }
+            cues.lastElement().setNumber(n);
+        } else if (is(0, "SCENE")) {
+            if ((tokens < 3) || (tokens > 4)) {
+                error(0, "SCENE must be followed by scene number, UP or DOWN and an optional fade time");
+                return;
+            }
+            int sc = integer(1);
+            if ((sc < 1) || (sc > TheApp.SCENES)) error(1, "SCENE with invalid scene number");
+            boolean up = is(2, "UP");
+            if (!up && !is(2, "DOWN")) error(2, "SCENE must specify UP or DOWN");
+            // without a fade time the actual global fade in/out time is
+            // used at execution time (-1)
+            int t = -1;
+            if (tokens == 4) {
+                t = decimal(3);
+                if (t < 0) error(3, "SCENE with invalid fade time");
+            }
+            addStep(CueStep.scene(sc, up, t));
+        } else if (is(0, "DELAY")) {
+            if (tokens != 2) {
+                error(0, "DELAY must be followed by time in secs");
+                return;
+            }
+            int t = decimal(1);
+            if (t < 0) error(1, "DELAY with invalid time");
+            addStep(CueStep.delay(t));
+        } else if (is(0, "BLACK")) {
+            if (tokens != 1) error(1, "BLACK must not be followed by parameters");
+            addStep(CueStep.black());
+        } else if (is(0, "PLAY")) {
+            if (tokens != 2) {
+                error(0, "PLAY must be followed by song number or name");
+                return;
+            }
+            int song = song(1);
+            if (song < 0) error(1, "PLAY with unknown song");
+            addStep(CueStep.play(song, songName(1)));
+        } else if (is(0, "STOP")) {
+            if (tokens != 1) error(1, "STOP must not be followed by parameters");
+            addStep(CueStep.stop());
+        } else if (is(0, "VOLUME")) {
+            if ((tokens != 2) && (tokens != 3)) {
+                error(0, "VOLUME must be followed by value 0..100 and optional fade time");
+                return;
+            }
+            int v = integer(1);
+            if ((v < 0) || (v > 100)) error(1, "VOLUME with invalid value");
+            int t = 0;
+            if (tokens == 3) {
+                t = decimal(2);
+                if (t < 0) error(2, "VOLUME with invalid fade time");
+            }
+            addStep(CueStep.volume(v, t));
+        } else if (is(0, "XFADE")) {
+            if (tokens != 3) {
+                error(0, "XFADE must be followed by song number or name and fade time");
+                return;
+            }
+            int song = song(1);
+            if (song < 0) error(1, "XFADE with unknown song");
+            int t = decimal(2);
+            if (t < 0) error(2, "XFADE with invalid fade time");
+            addStep(CueStep.crossfade(song, songName(1), t));
+        } else {
+            error(0, "invalid token '"+text(tokStart[0], tokEnd[0])+"'");
+        }
+    }
+
+    /**
+     * Adds a step to the last cue in the list. Steps before the
+     * first CUE are errors.
+     *
+     * @param     step   The step to add
+     */
+    private void addStep(CueStep step) {
+        if (cues.size() == 0) {
+            error(0, text(tokStart[0], tokEnd[0])+" before the first CUE");
+            return;
+        }
+        step.setAt(at);
+        step.setVoice(voice);
+        cues.lastElement().addStep(step);
+    }
+
+    /**
+     * Removes the first tokens of the line, the following tokens
+     * get parsed as if they started the line.
+     *
+     * @param     n   The number of tokens to remove
+     */
+    private void dropTokens(int n) {
+        for (int i = n; i < Math.min(tokens, MAX_TOKENS); i++) {
+            tokStart[i-n] = tokStart[i];
+            tokEnd[i-n] = tokEnd[i];
+        }
+        tokens -= n;
+    }
+
+    /**
+     * Records an error at the position of a token
+     *
+     * @param     t     The index of the token where the error was found
+     * @param     msg   The error message
+     */
+    private void error(int t, String msg) {
+        int col = (t < Math.min(tokens, MAX_TOKENS)) ? tokStart[t]+1 : lastEnd+1;
+        errors.add(new ShowError(name, lineNo, col, msg));
+    }
+
+    /**
+     * Checks if a token equals a keyword.
+     *
+     * @param     t    The token index
+     * @param     kw   The keyword
+     * @return         true if the token equals the keyword
+     */
+    private boolean is(int t, String kw) {
+        if (t >= Math.min(tokens, MAX_TOKENS)) return false;
+        int s = tokStart[t];
+        if (tokEnd[t]-s != kw.length()) return false;
+        for (int i = 0; i < kw.length(); i++) {
+            if (line[s+i] != kw.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts a token to a non negative integer.
+     *
+     * @param     t    The token index
+     * @return         The value or -1 if the token is no valid number
+     */
+    private int integer(int t) {
+        if (t >= Math.min(tokens, MAX_TOKENS)) return -1;
+        int s = tokStart[t];
+        int e = tokEnd[t];
+        if (e-s > 9) return -1;
+        int v = 0;
+        for (int i = s; i < e; i++) {
+            char c = line[i];
+            if ((c < '0') || (c > '9')) return -1;
+            v = v*10 + (c-'0');
+        }
+        return v;
+    }
+
+    /**
+     * Converts a token to a song number. The token is a number or the
+     * name of a song in the SongLibrary.
+     *
+     * @param     t    The token index
+     * @return         The song number or -1 if there is no such song
+     */
+    private int song(int t) {
+        int v = integer(t);
+        if ((v >= 0) || (t >= Math.min(tokens, MAX_TOKENS))) return v;
+        return SongLibrary.find(text(tokStart[t], tokEnd[t]));
+    }
+
+    /**
+     * Delivers the song name of a token. The name is kept with the cue
+     * step and looked up again when the step is executed, the song
+     * numbers change when songs are added to or removed from the library.
+     *
+     * @param     t    The token index
+     * @return         The name, null if the token is a song number
+     */
+    private String songName(int t) {
+        if ((integer(t) >= 0) || (t >= Math.min(tokens, MAX_TOKENS))) return null;
+        return text(tokStart[t], tokEnd[t]);
+    }
+
+    /**
+     * Converts a token with a decimal number (e.g. '1.25') to 1/1000
+     * units. Used for times in seconds, which are converted to msecs,
+     * and for cue numbers. Digits after the 3rd decimal are ignored.
+     *
+     * @param     t    The token index
+     * @return         The value in 1/1000 or -1 if the token is no valid number
+     */
+    private int decimal(int t) {
+        if (t >= Math.min(tokens, MAX_TOKENS)) return -1;
+        int s = tokStart[t];
+        int e = tokEnd[t];
+        int secs = 0;
+        int msecs = 0;
+        int digits = 0;
+        int i = s;
+        for (; (i < e) && (line[i] != '.'); i++) {
+            char c = line[i];
+            if ((c < '0') || (c > '9')) return -1;
+            if (++digits > 6) return -1;
+            secs = secs*10 + (c-'0');
+        }
+        if (i < e) {
+            int scale = 100;
+            for (i++; i < e; i++) {
+                char c = line[i];
+                if ((c < '0') || (c > '9')) return -1;
+                digits++;
+                msecs += (c-'0') * scale;
+                scale /= 10;
+            }
+        }
+        if (digits == 0) return -1;
+        return secs*1000 + msecs;
+    }
+
+    /**
+     * Creates a String from a part of the line buffer
+     *
+     * @param     s   The start index
+     * @param     e   The end index (exclusive)
+     * @return        The String
+     */
+    private String text(int s, int e) {
+        return new String(line, s, e-s);
+    }
+
+    /**
+     * Checks for white space characters
+     *
+     * @param     c   The character to check
+     * @return        true if 'c' is white space
+     */
+    private static boolean isSpace(char c) {
+        return c <= ' ';
+    }
+
+    /** the max. number of tokens per line stored */
+    private static final int MAX_TOKENS = 8;
+
+    /** the Reader delivering the show file */
+    private Reader in;
+
+    /** the name of the show file */
+    private String name;
+
+    /** the read buffer */
+    private char buf[] = new char[8192];
+
+    /** the read position in buf */
+    private int pos = 0;
+
+    /** the number of valid characters in buf */
+    private int count = 0;
+
+    /** the line buffer */
+    private char line[] = new char[256];
+
+    /** the number of characters in the line buffer */
+    private int len = 0;
+
+    /** the actual line number */
+    private int lineNo = 0;
+
+    /** the number of tokens in the actual line */
+    private int tokens = 0;
+
+    /** the start index of the tokens in the line buffer */
+    private int tokStart[] = new int[MAX_TOKENS];
+
+    /** the end index (exclusive) of the tokens in the line buffer */
+    private int tokEnd[] = new int[MAX_TOKENS];
+
+    /** the end index of the last token in the line */
+    private int lastEnd = 0;
+
+    /** the song position of the step in the actual line (msecs), -1 = none */
+    private int at = -1;
+
+    /** the audio voice of the step in the actual line */
+    private int voice = 1;
+
+    /** true = the lines following a CUE line are description lines */
+    private boolean expectDescription = false;
+
+    /** the compiled cues */
+    private Vector<Cue> cues;
+
+    /** the cue indices of the named markers */
+    private HashMap<String,Integer> markers;
+
+    /** the errors found */
+    private Vector<ShowError> errors;
+
+}
@@ -0,0 +1,161 @@
+package tconsole;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ShowWatcher loads the 'show.txt' file in background and watches
+ * it for changes. Every time the file has been changed, it gets parsed
+ * again and the new CueList is handed to a ShowListener.
+ *
+ * Loading and parsing happens in the ShowWatcher thread only, never in
+ * the UI thread and never in a thread executing a cue.
+ */
+public class ShowWatcher extends Thread {
+
+    /**
+     * Constructs and starts a ShowWatcher. The show file is loaded
+     * immediately, the listener receives the first CueList as soon as
+     * this has been done.
+     *
+     * @param     show   The show file to load and watch
+     * @param     l      The listener to receive the CueList objects
+     */
+    public ShowWatcher(File show, ShowListener l) {
+        super("ShowWatcher");
+        this.show = show.getAbsoluteFile();
+        listener = l;
+        setDaemon(true);
+        start();
+    }
+
+    /**
+     * Stops watching the show file. The listener will not receive
+     * any further CueList objects.
+     */
+    public void close() {
+        closed = true;
+        interrupt();
+    }
+
+    /**
+     * Loads the show file and hands it to the listener. Reloading
+     * is skipped if the file content did not change since it was
+     * loaded last time, editors often write a file more than once
+     * when saving it.
+     */
+    private void reload() {
+        long crc;
+        try {
+            crc = ShowCache.checksum(show);
+        } catch (Exception e) {
+            // file is missing or just being replaced
+            return;
+        }
+        if (loaded && crc == checksum) return;
+        CueList cl = new CueList(show);
+        if (closed) return;
+        // keep the actual CueList if the changed file contains errors
+        if (!cl.isLoaded()) return;
+        checksum = crc;
+        loaded = true;
+        listener.showLoaded(cl);
+    }
+
+    /**
+     * The background thread. Loads the show file and reloads it
+     * when the WatchService signals a change of the file. The
+     * directory is watched before the file is loaded the first time,
+     * a change saved while loading is seen and loaded afterwards.
+     */
+    public void run() {
+        // watch the directory for changes of the show file
+        Path dir = show.getParentFile().toPath();
+        WatchService ws = null;
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+            dir.register(ws,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (Exception e) {
+            System.out.println("cannot watch "+show+": "+e);
+        }
+
+        // the initial load. the checksum is taken before parsing, a
+        // change while parsing makes the next reload() parse again
+        checksum = 0;
+        loaded = false;
+        try {
+            checksum = ShowCache.checksum(show);
+            loaded = true;
+        } catch (Exception e) {
+        }
+        CueList cl = new CueList(show);
+        if (!closed) listener.showLoaded(cl);
+        if (ws == null) return;
+
+        try (WatchService w = ws) {
+            while (!closed) {
+                WatchKey key = w.take();
+                boolean changed = hasChanged(key);
+                // wait until the file has not been touched for some time,
+                // writes of an editor come in bursts
+                while (!closed) {
+                    key = w.poll(QUIET_TIME, TimeUnit.MILLISECONDS);
+                    if (key == null) break;
+                    changed |= hasChanged(key);
+                }
+                if (changed && !closed) reload();
+            }
+        } catch (InterruptedException e) {
+            // close() has been called
+        } catch (Exception e) {
+            System.out.println("cannot watch "+show+": "+e);
+        }
+    }
+
+    /**
+     * Checks if the events of a WatchKey refer to the show file.
+     * Resets the key.
+     *
+     * @param     key   The WatchKey signalled by the WatchService
+     * @return          true if the show file has been changed
+     */
+    private boolean hasChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> e: key.pollEvents()) {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (show.getName().equals(e.context().toString())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /** The time (msecs) without file changes before reloading */
+    private static final long QUIET_TIME = 200;
+
+    /** The show file */
+    private File show;
+
+    /** The receiver of the loaded CueList objects */
+    private ShowListener listener;
+
+    /** true = the file has been loaded */
+    private boolean loaded;
+
+    /** The CRC32 of the file when it was loaded last time */
+    private long checksum;
+
+    /** true = close() has been called */
+    private volatile boolean closed = false;
+
+}
@@ -31,6 +31,10 @@ public class Skin {
     public static ImageIcon ATTENTION = new ImageIcon(ClassLoader.getSystemClassLoader().getResource("icons/attention.png"));
     public static ImageIcon QUESTION  = new ImageIcon(ClassLoader.getSystemClassLoader().getResource("icons/question.png"));
 
+    // loads all fonts and icons, used to do this in background on startup
+    public static void initialize() {
+    }
+
     // reads a TTF font from the resources directory in the jar file
     private static Font readFont(String name) {
         try (InputStream stream = ClassLoader.getSystemClassLoader().getResourceAsStream(name)) {
@@ -0,0 +1,114 @@
+package tconsole;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * A Song describes one MP3 file of the SongLibrary: its number, its
+ * name and the play time, sample rate and channels read from the MP3
+ * frame headers. Songs are created and kept by the SongLibrary.
+ */
+public class Song {
+
+    /**
+     * Constructs a Song
+     *
+     * @param     number     The song number
+     * @param     file       The MP3 file
+     * @param     size       The size of the file (bytes)
+     * @param     modified   The modification time of the file
+     * @param     duration   The play time (msecs), -1 = not yet known
+     * @param     rate       The sample rate (Hz)
+     * @param     channels   The number of channels
+     */
+    public Song(int number, File file, long size, long modified, long duration, int rate, int channels) {
+        this.number = number;
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        this.duration = duration;
+        this.rate = rate;
+        this.channels = channels;
+        String n = file.getName();
+        name = n.substring(0, n.length() - EXTENSION.length());
+        // the title is the name without a leading song number
+        int i = 0;
+        while ((i < name.length()) && Character.isDigit(name.charAt(i))) i++;
+        while ((i < name.length()) && (" -_.".indexOf(name.charAt(i)) >= 0)) i++;
+        title = (i < name.length()) ? name.substring(i) : (i > 0) ? "" : name;
+    }
+
+    /**
+     * Checks if this song has a name
+     *
+     * @param     s   The name, with or without the song number or the
+     *                extension, case is ignored
+     * @return        true if the song has this name
+     */
+    public boolean matches(String s) {
+        if (s.toLowerCase(Locale.ROOT).endsWith(EXTENSION)) s = s.substring(0, s.length() - EXTENSION.length());
+        return name.equalsIgnoreCase(s) || title.equalsIgnoreCase(s);
+    }
+
+    /**
+     * Checks if the file of this song is unchanged
+     *
+     * @param     f   The file
+     * @return        true if size and modification time are unchanged
+     */
+    public boolean isCurrent(File f) {
+        return (f.length() == size) && (f.lastModified() == modified);
+    }
+
+    /**
+     * Delivers the play time as text
+     *
+     * @return    The play time ('3:07'), empty if not yet known
+     */
+    public String getDurationText() {
+        if (duration < 0) return "";
+        long s = (duration + 500) / 1000;
+        return (s / 60)+":"+String.format("%02d", s % 60);
+    }
+
+    /**
+     * Delivers the number, name and play time of the song
+     *
+     * @return    The description
+     */
+    public String toString() {
+        String d = getDurationText();
+        return String.format("%02d", number)+(title.isEmpty() ? "" : " "+title)+(d.isEmpty() ? "" : " ("+d+")");
+    }
+
+    /** the file name extension of songs */
+    public static final String EXTENSION = ".mp3";
+
+    /** The song number */
+    public final int number;
+
+    /** The MP3 file */
+    public final File file;
+
+    /** The file name without the extension */
+    public final String name;
+
+    /** The name without a leading song number, empty if the name is just the number */
+    public final String title;
+
+    /** The size of the file (bytes) */
+    public final long size;
+
+    /** The modification time of the file */
+    public final long modified;
+
+    /** The play time (msecs), -1 = not yet known */
+    public final long duration;
+
+    /** The sample rate (Hz) */
+    public final int rate;
+
+    /** The number of channels */
+    public final int channels;
+
+}
@@ -0,0 +1,370 @@
+package tconsole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.Vector;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Header;
+
+/**
+ * The SongLibrary knows the MP3 files in the library folder (Config
+ * parameter 'audio.library', the working directory by default). Every
+ * file is a Song with a number, cue steps and the UI may select songs
+ * by number or by name.
+ *
+ * A file whose name starts with a number ('07.mp3', '07 Storm.mp3')
+ * gets this number. Other files get numbers from FIRST_FREE upward, the
+ * number is kept in the index and stays the same as long as the file
+ * exists.
+ *
+ * The play time, sample rate and channels are read from the MP3 frame
+ * headers, without decoding. As this reads the whole file, it is done
+ * by a background thread. The results are kept in the index file
+ * 'songs.idx' in the library folder, on the next start only new or
+ * modified files (size, modification time) are read again. The folder
+ * is checked for changes every RESCAN_SECS.
+ *
+ * initialize() reads the index and lists the folder, the numbers and
+ * names are known as soon as it returns. With audio.mode=RADIG the songs
+ * are stored in the player, the library is not used.
+ */
+public class SongLibrary implements Runnable {
+
+    /**
+     * The private standard constructor. The correct way to create
+     * the SongLibrary is a call to SongLibrary.initialize()
+     */
+    private SongLibrary() {
+        Thread t = new Thread(this, "SongLibrary");
+        t.setDaemon(true);
+        // reading the files must not disturb DMX output and playback
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Reads the index, lists the library folder and starts the
+     * background thread reading the new files.
+     */
+    public static void initialize() {
+        if (theOne != null) return;
+        folder = new File(Config.audioLibrary);
+        index = new File(folder, INDEX);
+        synchronized (SongLibrary.class) {
+            load();
+            list();
+        }
+        theOne = new SongLibrary();
+    }
+
+    /**
+     * Delivers a song
+     *
+     * @param     number   The song number
+     * @return             The song, null if there is no such song
+     */
+    public static synchronized Song get(int number) {
+        return songs.get(number);
+    }
+
+    /**
+     * Delivers the MP3 file of a song. Songs not in the library are
+     * expected as '01.mp3', '02.mp3' ... in the library folder.
+     *
+     * @param     number   The song number
+     * @return             The file
+     */
+    public static File getFile(int number) {
+        Song s = get(number);
+        if (s != null) return s.file;
+        return new File(Config.audioLibrary, String.format("%02d", number)+Song.EXTENSION);
+    }
+
+    /**
+     * Finds a song by number or name
+     *
+     * @param     s   The song number, or the name of the file with or
+     *                without number and extension, case is ignored
+     * @return        The song number, -1 if not found
+     */
+    public static synchronized int find(String s) {
+        s = s.trim();
+        if (s.isEmpty()) return -1;
+        boolean digits = true;
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) digits = false;
+        }
+        if (digits) return (s.length() <= 9) ? Integer.parseInt(s) : -1;
+        for (Song song: songs.values()) {
+            if (song.matches(s)) return song.number;
+        }
+        return -1;
+    }
+
+    /**
+     * Delivers the next or previous song in the library
+     *
+     * @param     number   The actual song number
+     * @param     step     1 = next, -1 = previous
+     * @return             The song number, 'number' if there is no
+     *                     other song in this direction
+     */
+    public static synchronized int step(int number, int step) {
+        Integer n = (step > 0) ? songs.higherKey(number) : songs.lowerKey(number);
+        return (n != null) ? n : number;
+    }
+
+    /**
+     * Delivers the highest song number
+     *
+     * @return    The song number, 0 if the library is empty
+     */
+    public static synchronized int getMaxSong() {
+        return songs.isEmpty() ? 0 : songs.lastKey();
+    }
+
+    /**
+     * Delivers a one line list of all songs
+     *
+     * @return    The list
+     */
+    public static synchronized String summary() {
+        StringBuffer b = new StringBuffer(songs.size()+" songs");
+        String sep = ": ";
+        for (Song s: songs.values()) {
+            b.append(sep+s);
+            sep = ", ";
+        }
+        return b.toString();
+    }
+
+    /**
+     * The background thread. Reads the play time of new and modified
+     * files, saves the index and checks the folder for changes.
+     */
+    public void run() {
+        for (;;) {
+            boolean changed = false;
+            for (Song s: unknown()) {
+                Song r = scan(s);
+                synchronized (SongLibrary.class) {
+                    // the file may have been removed or replaced meanwhile
+                    if (songs.get(s.number) == s) songs.put(s.number, r);
+                }
+                changed = true;
+            }
+            synchronized (SongLibrary.class) {
+                if (changed || dirty) save();
+                dirty = false;
+            }
+            try {
+                Thread.sleep(RESCAN_SECS * 1000L);
+            } catch (InterruptedException e) {
+            }
+            synchronized (SongLibrary.class) {
+                list();
+            }
+        }
+    }
+
+    /**
+     * Delivers the songs whose play time is not yet known
+     *
+     * @return    The songs
+     */
+    private static synchronized Vector<Song> unknown() {
+        Vector<Song> v = new Vector<Song>();
+        for (Song s: songs.values()) {
+            if (s.duration < 0) v.add(s);
+        }
+        return v;
+    }
+
+    /**
+     * Reads the MP3 frame headers of a song. The frames are skipped,
+     * not decoded.
+     *
+     * @param     s   The song with unknown play time
+     * @return        The song with play time, sample rate and channels,
+     *                a play time of 0 if the file cannot be read
+     */
+    private static Song scan(Song s) {
+        double ms = 0.0;
+        int rate = 0;
+        int channels = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(s.file), 65536)) {
+            Bitstream bs = new Bitstream(in);
+            try {
+                for (;;) {
+                    Header h = bs.readFrame();
+                    if (h == null) break;
+                    if (rate == 0) {
+                        rate = h.frequency();
+                        channels = (h.mode() == Header.SINGLE_CHANNEL) ? 1 : 2;
+                    }
+                    ms += h.ms_per_frame();
+                    bs.closeFrame();
+                }
+            } finally {
+                bs.close();
+            }
+        } catch (Exception e) {
+            System.out.println("cannot read "+s.file+": "+e);
+        }
+        return new Song(s.number, s.file, s.size, s.modified, Math.round(ms), rate, channels);
+    }
+
+    /**
+     * Lists the library folder. Keeps the songs of unchanged files,
+     * adds new files, drops removed files. Must be called while holding
+     * the lock of the class.
+     */
+    private static void list() {
+        File files[] = folder.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+        HashMap<String,Song> old = new HashMap<String,Song>();
+        for (Song s: songs.values()) old.put(s.file.getName(), s);
+        TreeMap<Integer,Song> found = new TreeMap<Integer,Song>();
+        Vector<File> unnumbered = new Vector<File>();
+        // first the files named by their number
+        for (File f: files) {
+            if (!f.getName().toLowerCase(Locale.ROOT).endsWith(Song.EXTENSION) || !f.isFile()) continue;
+            int n = leadingNumber(f.getName());
+            if ((n > 0) && !found.containsKey(n)) found.put(n, song(n, f, old.get(f.getName())));
+            else unnumbered.add(f);
+        }
+        // then the other files, with the number they had before if possible
+        Vector<File> fresh = new Vector<File>();
+        for (File f: unnumbered) {
+            Song s = old.get(f.getName());
+            if ((s != null) && !found.containsKey(s.number)) found.put(s.number, song(s.number, f, s));
+            else fresh.add(f);
+        }
+        int next = FIRST_FREE;
+        for (File f: fresh) {
+            while (found.containsKey(next)) next++;
+            found.put(next, song(next, f, null));
+        }
+        if (!found.equals(songs)) dirty = true;
+        songs = found;
+    }
+
+    /**
+     * Delivers the song of a file, the known song if the file is unchanged
+     *
+     * @param     n     The song number
+     * @param     f     The file
+     * @param     old   The song known for the file, null if none
+     * @return          The song, with unknown play time if the file is new
+     */
+    private static Song song(int n, File f, Song old) {
+        if ((old != null) && (old.number == n) && old.isCurrent(f)) return old;
+        return new Song(n, f, f.length(), f.lastModified(), -1, 0, 0);
+    }
+
+    /**
+     * Delivers the number at the start of a file name
+     *
+     * @param     name   The file name
+     * @return           The number, 0 if the name starts with no number
+     */
+    private static int leadingNumber(String name) {
+        int i = 0;
+        int n = 0;
+        while ((i < name.length()) && Character.isDigit(name.charAt(i)) && (i < 4)) {
+            n = n*10 + (name.charAt(i) - '0');
+            i++;
+        }
+        if ((i == 0) || (i > 3)) return 0;
+        // '2024 Live.mp3' or '12abc.mp3' are names, not numbers
+        char c = name.charAt(i);
+        return ((c == '.') || (" -_".indexOf(c) >= 0)) ? n : 0;
+    }
+
+    /**
+     * Reads the index file. Must be called while holding the lock of
+     * the class. A missing or broken index just makes the files be
+     * read again.
+     */
+    private static void load() {
+        TreeMap<Integer,Song> s = new TreeMap<Integer,Song>();
+        try (BufferedReader in = new BufferedReader(new FileReader(index))) {
+            if (!HEADER.equals(in.readLine())) return;
+            for (;;) {
+                String line = in.readLine();
+                if (line == null) break;
+                String w[] = line.split("\t", 7);
+                if (w.length < 7) continue;
+                Song song = new Song(Integer.parseInt(w[0]), new File(folder, w[6]), Long.parseLong(w[1]),
+                    Long.parseLong(w[2]), Long.parseLong(w[3]), Integer.parseInt(w[4]), Integer.parseInt(w[5]));
+                s.put(song.number, song);
+            }
+        } catch (Exception e) {
+            return;
+        }
+        songs = s;
+    }
+
+    /**
+     * Writes the index file. The file is written to a temporary file
+     * first, an interrupted write keeps the old index. Must be called
+     * while holding the lock of the class.
+     */
+    private static void save() {
+        File tmp = new File(index.getPath()+".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(tmp)) {
+                out.println(HEADER);
+                for (Song s: songs.values()) {
+                    out.println(s.number+"\t"+s.size+"\t"+s.modified+"\t"+s.duration+"\t"
+                        +s.rate+"\t"+s.channels+"\t"+s.file.getName());
+                }
+            }
+            Files.move(tmp.toPath(), index.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.out.println("cannot write "+index+": "+e);
+            tmp.delete();
+        }
+    }
+
+    /** the name of the index file in the library folder */
+    private static final String INDEX = "songs.idx";
+
+    /** the first line of the index file, identifies the format */
+    private static final String HEADER = "# tconsole song index 1";
+
+    /** the first number of songs without a number in the name */
+    private static final int FIRST_FREE = 100;
+
+    /** the interval the folder is checked for changes (secs) */
+    private static final int RESCAN_SECS = 10;
+
+    /** the library folder */
+    private static File folder;
+
+    /** the index file */
+    private static File index;
+
+    /** the songs by number */
+    private static TreeMap<Integer,Song> songs = new TreeMap<Integer,Song>();
+
+    /** true = the songs changed since the index has been written */
+    private static boolean dirty = false;
+
+    /** the one and only instance of SongLibrary */
+    private static SongLibrary theOne = null;
+
+}
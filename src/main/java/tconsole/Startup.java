@@ -0,0 +1,98 @@
+package tconsole;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Startup measures the time the application needs until the first
+ * DMX frame has been sent and until the main window is visible. Both
+ * times are reported on stdout, relative to the start of the JVM and
+ * to the start of main().
+ *
+ * With the '--exit-after-startup' option the application ends after
+ * the startup has been completed. Together with '--dry-run' this is
+ * used to record the class data sharing (AppCDS) archive.
+ */
+public class Startup {
+
+    /**
+     * Private default constructor. Startup provides
+     * static methods only.
+     */
+    private Startup() {
+    }
+
+    /**
+     * Marks the start of main(). 
+     */
+    public static void begin() {
+        mainStart = System.currentTimeMillis();
+        jvmStart = mainStart;
+        try {
+            Optional<Instant> s = ProcessHandle.current().info().startInstant();
+            if (s.isPresent()) jvmStart = s.get().toEpochMilli();
+        } catch (Exception e) {
+            // not supported on this platform
+        }
+    }
+
+    /**
+     * Marks a startup stage. Only the first time a stage is passed
+     * gets recorded. Reports the startup times when all expected
+     * stages have been passed.
+     *
+     * @param     stage   The stage, DMX or WINDOW
+     */
+    public static synchronized void mark(int stage) {
+        if (stamps[stage] != 0) return;
+        stamps[stage] = System.currentTimeMillis();
+        // there is no window in headless mode
+        if ((stamps[DMX] == 0) || ((stamps[WINDOW] == 0) && !TheApp.headless)) return;
+        StringBuffer b = new StringBuffer("startup:");
+        b.append(" first DMX frame "+(stamps[DMX]-jvmStart)+" ms");
+        if (stamps[WINDOW] != 0) b.append(", window "+(stamps[WINDOW]-jvmStart)+" ms");
+        b.append(" after JVM start (main() after "+(mainStart-jvmStart)+" ms)");
+        System.out.println(b.toString());
+        if (exitAfterStartup) exitLater();
+    }
+
+    /**
+     * Ends the application after some time, giving the UI the
+     * chance to paint the window completely.
+     */
+    private static void exitLater() {
+        new Thread(
+            new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(EXIT_DELAY);
+                    } catch (Exception e) {
+                    }
+                    System.exit(0);
+                }
+            }
+        ).start();
+    }
+
+    /** Stage: the first DMX frame has been sent */
+    public static final int DMX = 0;
+
+    /** Stage: the main window is visible */
+    public static final int WINDOW = 1;
+
+    /** the time to wait before exiting with exitAfterStartup (msecs) */
+    private static final int EXIT_DELAY = 2000;
+
+    /** true = end the application when the startup is complete */
+    public static boolean exitAfterStartup = false;
+
+    /** the time the JVM was started (msecs) */
+    private static long jvmStart = 0;
+
+    /** the time main() was entered (msecs) */
+    private static long mainStart = 0;
+
+    /** the time the stages were passed (msecs), 0 = not yet */
+    private static long stamps[] = new long[WINDOW+1];
+
+}
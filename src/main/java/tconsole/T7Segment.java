@@ -12,7 +12,7 @@ import javax.swing.*;
  * as a 71x71 fiels in a channel strip. It displays a number with a 7-segment font
  * and a small label above this.
  */
-public class T7Segment extends JComponent implements MouseListener {
+public class T7Segment extends JComponent implements MouseListener, CachedWidget {
     
     /**
      * Constructs a T7Segment component.
@@ -29,6 +29,16 @@ public class T7Segment extends JComponent implements MouseListener {
         addMouseListener(this);
     }
 
+    /**
+     * Sets the label displayed above the 7-segment number
+     * 
+     * @param     label   The label
+     */
+    public void setLabel(String label) {
+        this.label = label;
+        repaint();
+    }
+
     /**
      * Set the string to be displayed using the 7-segment font. Only digits
      * and the decimal point are allowed for this.
@@ -41,16 +51,35 @@ public class T7Segment extends JComponent implements MouseListener {
     }
 
     /**
-     * Paints the component
+     * Paints the component. The component is rendered through the
+     * RenderCache.
      * 
      * @param     g   The graphic context to use for painting
      */
     @Override
     public void paint(Graphics g) {
-        Graphics2D g2 = (Graphics2D)g;
+        RenderCache.paint(g, this, getWidth(), getHeight());
+    }
+
+    /**
+     * Delivers the cache key of the actual appearance of the display
+     * 
+     * @return    The cache key
+     */
+    public String getCacheKey() {
+        return "T7Segment|"+RenderCache.key(getBackground())+"|"+RenderCache.key(getForeground())
+            +"|"+RenderCache.key(getFont())+"|"+isEnabled()+"|"+focussed+"|"+label+"|"+segments;
+    }
+
+    /**
+     * Renders the display
+     * 
+     * @param     g2   The graphic context to render to
+     * @param     w    The width of the display
+     * @param     h    The height of the display
+     */
+    public void render(Graphics2D g2, int w, int h) {
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        int w = getBounds().width;
-        int h = getBounds().height;
 
         Color bg = getBackground();
         if (isEnabled() && focussed) bg = bg.brighter();
@@ -10,7 +10,7 @@ import javax.swing.*;
 /**
  * A JButton implementation used for buttons in this application.
  */
-public class TButton extends JButton implements MouseListener {
+public class TButton extends JButton implements MouseListener, CachedWidget {
     
     /**
      * Constructs a labelled TButton
@@ -60,16 +60,37 @@ public class TButton extends JButton implements MouseListener {
     }
 
     /**
-     * Paints the component
+     * Paints the component. The component is rendered through the
+     * RenderCache.
      * 
      * @param     g   The graphic context to use for painting
      */
     @Override
     public void paint(Graphics g) {
-        Graphics2D g2 = (Graphics2D)g;
+        RenderCache.paint(g, this, getWidth(), getHeight());
+    }
+
+    /**
+     * Delivers the cache key of the actual appearance of the button
+     * 
+     * @return    The cache key
+     */
+    public String getCacheKey() {
+        Icon icon = getIcon();
+        return "TButton|"+RenderCache.key(getBackground())+"|"+RenderCache.key(getForeground())
+            +"|"+RenderCache.key(getFont())+"|"+isEnabled()+"|"+focussed+"|"+drawBorder
+            +"|"+((icon != null) ? System.identityHashCode(icon) : 0)+"|"+getText();
+    }
+
+    /**
+     * Renders the button
+     * 
+     * @param     g2   The graphic context to render to
+     * @param     w    The width of the button
+     * @param     h    The height of the button
+     */
+    public void render(Graphics2D g2, int w, int h) {
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        int w = getBounds().width;
-        int h = getBounds().height;
 
         Color bg = getBackground();
         if (isEnabled() && focussed) bg = bg.brighter();
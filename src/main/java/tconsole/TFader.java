@@ -66,6 +66,22 @@ public class TFader extends JSlider
         setValue(newValue);
     }
 
+    /**
+     * Shows a level delivered by DMXTransmit. Unlike setValue(float)
+     * the fader is only changed (and repainted) if the thumb moves by
+     * at least one pixel.
+     *
+     * @param     value   The level to show (0..1)
+     */
+    public void showValue(float value) {
+        int newValue = (int) (value * 1000.0f);
+        if (newValue < 0) newValue = 0;
+        if (newValue > 1000) newValue = 1000;
+        if (newValue == getValue()) return;
+        if (tui.getThumbPosition(newValue) == tui.getThumbPosition(getValue())) return;
+        setValue(newValue);
+    }
+
     /**
      * Called by the framework when the mouse wheel gets rotated
      * 
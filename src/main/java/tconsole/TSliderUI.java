@@ -64,6 +64,16 @@ public class TSliderUI extends BasicSliderUI {
         return timg.getWidth(slider);
     }
 
+    /**
+     * Delivers the vertical pixel position of the thumb for a value
+     *
+     * @param     value   The slider value
+     * @return            The y position in the slider
+     */
+    public int getThumbPosition(int value) {
+        return yPositionForValue(value);
+    }
+
     /** the thumb image (enabled state) */
     private Image timg;
 
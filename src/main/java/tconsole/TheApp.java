@@ -17,51 +17,114 @@ import org.json.*;
 public class TheApp extends JFrame {
 
     /**
-     * Constructs and shows a TConsole window.
+     * Constructs and shows a TConsole window. Must be called
+     * on the event dispatch thread after startOutput().
      *
      */
     public TheApp() {
-        Config.initialize();
-        fadeIn = Config.fadeIn;
-        fadeOut = Config.fadeOut;
         String wd = new File(".").getAbsolutePath();
         setTitle("TConsole16 "+Version.version+"- "+wd);
         mainPanel = new MainPanel();
         add(mainPanel);
         pack();
+        addWindowListener(
+            new WindowAdapter() {
+                public void windowOpened(WindowEvent e) {
+                    Startup.mark(Startup.WINDOW);
+                }
+            }
+        );
         setVisible(true);
         setResizable(false);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        DMXTransmit.initialize();
+    }
+
+    /**
+     * Starts the light output. Reads the configuration, the stored
+     * scenes and the scene states of the last run and starts sending
+     * DMX frames. This is done first on startup, before any UI is
+     * created, to get the lights back as fast as possible after a restart.
+     */
+    public static void startOutput() {
+        Config.initialize();
+        fadeIn = Config.fadeIn;
+        fadeOut = Config.fadeOut;
+        Scene.initialize();
         Scene.load();
-        if (Config.audioMode == Config.MPLAYER) MPlayer.initialize();
+        ScenePersistence.initialize();
+        OutputState.initialize();
+        DMXTransmit.initialize();
+        if (Config.audioMode != Config.RADIG) SongLibrary.initialize();
+        Prefetcher.initialize();
     }
 
     /**
      * The application main method. Starts the application, creates a
      * TConsole main window and populates this with the components / panels
      * building the application UI
+     *
+     * The DMX output is started first. Then fonts, icons and the audio player are
+     * loaded in background while the main thread initializes the look
+     * and feel, finally the window is built on the event dispatch thread.
+     *
+     * With the '--headless' option, no window is created. The application
+     * is controlled by commands from stdin or a local socket instead.
+     * The '--exit-after-startup' option ends the application as soon
+     * as the startup is complete. The '--dry-run' option starts the
+     * application without any output: no Artnet frames are sent and no
+     * audio player is started. Both are used to record the class data
+     * sharing archive ('gradle appCds').
      */
     public static void main(String[] args) throws Exception {
+        Startup.begin();
+        for (String a: args) {
+            if ("--headless".equals(a)) headless = true;
+            if ("--exit-after-startup".equals(a)) Startup.exitAfterStartup = true;
+            if ("--dry-run".equals(a)) dryRun = true;
+        }
+        if (headless) {
+            Headless.start();
+            return;
+        }
+        startOutput();
+        Thread preload = new Thread(
+            new Runnable() {
+                public void run() {
+                    Skin.initialize();
+                    AudioEngine.initialize();
+                }
+            }, "Preload");
+        preload.start();
         UIManager.setLookAndFeel("com.jtattoo.plaf.noire.NoireLookAndFeel");
-        new TheApp();
+        SwingUtilities.invokeLater(
+            new Runnable() {
+                public void run() {
+                    new TheApp();
+                }
+            }
+        );
     }
 
     /**
-     * The number of channels / faders provided by the
-     * application. Affects the faders shown in the upper
-     * application main window.
+     * The number of channel strips / faders shown in the
+     * application main window. If there are more CHANNELS, the
+     * faders show one bank of STRIPS channels at a time.
+     */
+    public static final int STRIPS = 16;
+
+    /**
+     * The number of channels provided by the application.
+     * Defined by the Config parameter 'dmx.channels', STRIPS
+     * by default.
      */
-    public static final int CHANNELS = 16;
+    public static int CHANNELS = STRIPS;
     
     /**
      * The number of scenes provided by the
-     * application. This equals to the number of channels.
-     * Future versions of the software may support different
-     * numbers for CHANNELS and SCENES
+     * application. There is one scene per channel strip.
      */
-    public static final int SCENES = CHANNELS;
+    public static final int SCENES = STRIPS;
 
     /**
      * A Properties object containing the fader definitions
@@ -83,7 +146,16 @@ public class TheApp extends JFrame {
     /** true = one scene is in edit mode */
     public static boolean edit = false;
 
-    /** a global reference to the main panel */
+    /** true = scenes are edited blind, edits do not show in the output */
+    public static boolean blind = false;
+
+    /** true = the application runs without UI */
+    public static boolean headless = false;
+
+    /** true = the application sends no Artnet frames and plays no audio */
+    public static boolean dryRun = false;
+
+    /** a global reference to the main panel, null in headless mode */
     public static MainPanel mainPanel;
 }
 
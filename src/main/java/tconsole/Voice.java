@@ -0,0 +1,208 @@
+package tconsole;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * A Voice is one song played by the InternalPlayer. The samples come
+ * from the PcmCache if the song has been decoded in advance, otherwise
+ * the MP3 file is decoded while playing.
+ *
+ * Every Voice has its own gain, which may be ramped frame by frame.
+ * The AudioMixer mixes the voices, e.g. the old and the new song
+ * of a crossfade.
+ */
+public class Voice {
+
+    /**
+     * Constructs a Voice playing a song. Decodes the first frame of the
+     * song if it is not cached, to find the sample format.
+     *
+     * @param     song   The song number
+     * @throws    Exception if the song cannot be read
+     */
+    public Voice(int song) throws Exception {
+        this(song, true);
+    }
+
+    /**
+     * Constructs a Voice playing a song, with or without the PcmCache.
+     *
+     * @param     song     The song number
+     * @param     cached   false = decode the song while playing, even
+     *                     if it is cached
+     * @throws    Exception if the song cannot be read
+     */
+    Voice(int song, boolean cached) throws Exception {
+        this.song = song;
+        PcmBuffer p = cached ? PcmCache.get(song) : null;
+        if (p != null) {
+            pcm = p.getSamples();
+            rate = p.rate;
+            channels = p.channels;
+            return;
+        }
+        // decode now, and keep the song decoded for the next time
+        if (cached) PcmCache.prepare(song);
+        in = new BufferedInputStream(new FileInputStream(SongLibrary.getFile(song)), 65536);
+        bs = new Bitstream(in);
+        decoder = new Decoder();
+        if (!decodeFrame()) {
+            close();
+            throw new Exception("no audio frames");
+        }
+        rate = decoder.getOutputFrequency();
+        channels = decoder.getOutputChannels();
+    }
+
+    /**
+     * Ramps the gain of this voice
+     *
+     * @param     target   The gain at the end of the ramp (0..1)
+     * @param     frames   The length of the ramp (frames), 0 = immediately
+     */
+    public void fade(float target, int frames) {
+        if (frames <= 0) {
+            gain = target;
+            rampLeft = 0;
+        } else {
+            step = (target - gain) / frames;
+            rampLeft = frames;
+        }
+        this.target = target;
+    }
+
+    /**
+     * Checks if this voice is faded out completely
+     *
+     * @return    true if the voice is silent for good
+     */
+    public boolean isSilent() {
+        return (rampLeft == 0) && (gain == 0.0f);
+    }
+
+    /**
+     * Checks if all samples of the song have been played
+     *
+     * @return    true if the song has ended
+     */
+    public boolean hasEnded() {
+        return ended;
+    }
+
+    /**
+     * Adds samples of this voice to a mix.
+     *
+     * @param     mix   The mix, interleaved samples
+     * @param     n     The number of samples to add, a multiple of
+     *                  the number of channels
+     * @return          The number of samples added, less than n at
+     *                  the end of the song
+     */
+    public int mixInto(int mix[], int n) {
+        int i = 0;
+        try {
+            while (i < n) {
+                if (pcm != null) {
+                    if (!pcm.hasRemaining()) break;
+                    for (int c = 0; c < channels; c++) mix[i+c] += (int) (pcm.getShort() * gain);
+                } else {
+                    if ((offset >= length) && !decodeFrame()) break;
+                    for (int c = 0; c < channels; c++) mix[i+c] += (int) (frame[offset+c] * gain);
+                    offset += channels;
+                }
+                i += channels;
+                if (rampLeft > 0) {
+                    gain += step;
+                    if (--rampLeft == 0) gain = target;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("cannot play song "+song+": "+e);
+        }
+        if (i < n) ended = true;
+        return i;
+    }
+
+    /**
+     * Decodes the next frame of the MP3 file
+     *
+     * @return    false at the end of the song
+     * @throws    Exception if the song cannot be decoded
+     */
+    private boolean decodeFrame() throws Exception {
+        Header h = bs.readFrame();
+        if (h == null) return false;
+        SampleBuffer sb = (SampleBuffer) decoder.decodeFrame(h, bs);
+        frame = sb.getBuffer();
+        length = sb.getBufferLength();
+        offset = 0;
+        bs.closeFrame();
+        return true;
+    }
+
+    /**
+     * Releases the MP3 file
+     */
+    public void close() {
+        try {
+            if (bs != null) bs.close();
+            if (in != null) in.close();
+        } catch (Exception e) {
+        }
+        bs = null;
+        in = null;
+    }
+
+    /** The song number */
+    public final int song;
+
+    /** The sample rate (Hz) */
+    public final int rate;
+
+    /** The number of channels */
+    public final int channels;
+
+    /** the samples of a cached song, null if decoded while playing */
+    private ByteBuffer pcm = null;
+
+    /** the MP3 file decoded while playing */
+    private InputStream in = null;
+
+    /** the MP3 bit stream decoded while playing */
+    private Bitstream bs = null;
+
+    /** the MP3 decoder */
+    private Decoder decoder = null;
+
+    /** the samples of the frame decoded last */
+    private short frame[] = null;
+
+    /** the number of samples in 'frame' */
+    private int length = 0;
+
+    /** the next sample in 'frame' to play */
+    private int offset = 0;
+
+    /** true = all samples have been played */
+    private boolean ended = false;
+
+    /** the actual gain (0..1) */
+    private float gain = 1.0f;
+
+    /** the gain at the end of the ramp */
+    private float target = 1.0f;
+
+    /** the gain change per frame while ramping */
+    private float step = 0.0f;
+
+    /** the number of frames until the end of the ramp */
+    private int rampLeft = 0;
+
+}
@@ -0,0 +1,165 @@
+package tconsole;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fault injection tests of the ScenePersistence. Every test saves some
+ * scene changes, damages the files like a crash or a power failure at
+ * a bad moment would do, restarts by loading the scenes again and
+ * checks that the scenes are back as they were after the last change
+ * synced to disk.
+ *
+ * The files are written to the working directory, the Gradle build
+ * runs the tests in 'build/test-work'.
+ */
+public class ScenePersistenceTest {
+
+    /**
+     * Starts every test with the scenes saved in 'scenes.txt' and
+     * an empty journal.
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        Files.deleteIfExists(ScenePersistence.SCENES.toPath());
+        Files.deleteIfExists(ScenePersistence.TMP.toPath());
+        Files.deleteIfExists(ScenePersistence.JOURNAL.toPath());
+        Scene.initialize();
+        for (int sn = 1; sn <= TheApp.SCENES; sn++) Scene.getScene(sn).setName("Scene "+sn);
+        persistence = new ScenePersistence(true);
+        persistence.compact();
+    }
+
+    /**
+     * The changes in the journal are replayed after a crash
+     */
+    @Test
+    public void replaysJournal() throws Exception {
+        edit(1, 0.5f);
+        edit(2, 0.25f);
+        String expected[] = state();
+        restart();
+        assertArrayEquals(expected, state());
+    }
+
+    /**
+     * A journal line not completely written ends the replay, the
+     * changes before are kept
+     */
+    @Test
+    public void ignoresTruncatedJournalTail() throws Exception {
+        edit(1, 0.5f);
+        String expected[] = state();
+        edit(2, 0.25f);
+        try (RandomAccessFile f = new RandomAccessFile(ScenePersistence.JOURNAL, "rw")) {
+            f.setLength(f.length() - 5);
+        }
+        restart();
+        assertArrayEquals(expected, state());
+    }
+
+    /**
+     * A journal line with a wrong CRC ends the replay, the changes
+     * before are kept
+     */
+    @Test
+    public void ignoresCorruptedJournalTail() throws Exception {
+        edit(1, 0.5f);
+        String expected[] = state();
+        edit(2, 0.25f);
+        try (RandomAccessFile f = new RandomAccessFile(ScenePersistence.JOURNAL, "rw")) {
+            // a digit of the last level, the line is still well formed
+            long p = f.length() - 2;
+            f.seek(p);
+            int c = f.read();
+            f.seek(p);
+            f.write((c == '0') ? '1' : '0');
+        }
+        restart();
+        assertArrayEquals(expected, state());
+    }
+
+    /**
+     * A compaction killed after writing the temporary file and before
+     * the rename leaves 'scenes.txt' and the journal intact, the next
+     * compaction replaces the stale temporary file
+     */
+    @Test
+    public void survivesCrashBeforeRename() throws Exception {
+        String before = Files.readString(ScenePersistence.SCENES.toPath());
+        edit(1, 0.5f);
+        edit(2, 0.25f);
+        String expected[] = state();
+        persistence.writeTemp();
+        restart();
+        assertTrue(ScenePersistence.TMP.isFile());
+        assertEquals(before, Files.readString(ScenePersistence.SCENES.toPath()));
+        assertArrayEquals(expected, state());
+        // the restarted application compacts again
+        persistence = new ScenePersistence(true);
+        persistence.compact();
+        assertEquals(0, ScenePersistence.JOURNAL.length());
+        restart();
+        assertArrayEquals(expected, state());
+    }
+
+    /**
+     * A compaction killed after the rename and before the journal has
+     * been emptied replays the journal once more, without harm
+     */
+    @Test
+    public void survivesCrashAfterRename() throws Exception {
+        edit(1, 0.5f);
+        edit(2, 0.25f);
+        edit(1, 0.75f);
+        String expected[] = state();
+        persistence.writeTemp();
+        Files.move(ScenePersistence.TMP.toPath(), ScenePersistence.SCENES.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(ScenePersistence.JOURNAL.length() > 0);
+        restart();
+        assertArrayEquals(expected, state());
+    }
+
+    /**
+     * Changes a scene and saves the change to the journal
+     *
+     * @param     sn      The scene number
+     * @param     level   The new level of channel 1
+     */
+    private void edit(int sn, float level) {
+        Scene.getScene(sn).setValue(1, level);
+        persistence.persist();
+    }
+
+    /**
+     * Simulates a restart of the application: new scenes are created
+     * and loaded from 'scenes.txt' and the journal
+     */
+    private static void restart() {
+        Scene.initialize();
+        Scene.load();
+    }
+
+    /**
+     * Delivers the state of all scenes
+     *
+     * @return    The scenes as written to 'scenes.txt'
+     */
+    private static String[] state() {
+        String s[] = new String[TheApp.SCENES];
+        for (int sn = 1; sn <= TheApp.SCENES; sn++) s[sn-1] = Scene.getScene(sn).toString();
+        return s;
+    }
+
+    /** the persistence saving the changes, without background thread */
+    private ScenePersistence persistence;
+
+}